@@ -0,0 +1,38 @@
+/*  Copyright (C) 2007 Laurent A.V. Szyster
+ *
+ *  This library is free software; you can redistribute it and/or modify
+ *  it under the terms of version 2 of the GNU General Public License as
+ *  published by the Free Software Foundation.
+ *  
+ *   http://www.gnu.org/copyleft/gpl.html
+ *  
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *  
+ *  You should have received a copy of the GNU General Public License
+ *  along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ *  USA
+ *  
+ */
+
+package org.async.chat;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A producer that may hand buffers to its channel, to send them without 
+ * copying, between the bytes it produces.
+ */
+public interface BufferProducer extends Producer {
+    /**
+     * Hand over the buffer to send next, if any, before the bytes of the 
+     * next call to <code>more</code>. The channel sends its remaining bytes
+     * and does not write to it.
+     * 
+     * @return a buffer or <code>null</code>
+     * @throws Throwable
+     */
+    public ByteBuffer buffer () throws Throwable;
+}
@@ -20,10 +20,15 @@
 package org.async.chat;
 
 
-public class ByteProducer implements Producer {
+public class ByteProducer implements SizedProducer {
     private byte[] _bytes;
+    private long _size;
     public ByteProducer (byte[] bytes) {
         _bytes = bytes;
+        _size = bytes.length;
+    }
+    public long size() {
+        return _size;
     }
     public boolean stalled() {
         return false;
@@ -28,11 +28,25 @@ import java.util.Iterator;
  * wrapping <code>String</code> arrays.
  * 
  */
-public class BytesProducer implements Producer {
+public class BytesProducer implements SizedProducer {
     protected Iterator<byte[]> _bytes;
+    protected long _size = -1;
     public BytesProducer(Iterator bytes) {
         _bytes = bytes;
     }
+    /**
+     * Produce bytes which total length is known.
+     * 
+     * @param bytes to produce
+     * @param size of all bytes produced
+     */
+    public BytesProducer(Iterator bytes, long size) {
+        _bytes = bytes;
+        _size = size;
+    }
+    public long size() {
+        return _size;
+    }
     public boolean stalled() {
         return false;
     }
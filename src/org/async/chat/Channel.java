@@ -23,8 +23,8 @@ public interface Channel {
     /**
      * Get the current terminator.
      * 
-     * @return <code>null</code>, an <code>Integer</code> or 
-     * a <code>byte[]</code> string.
+     * @return <code>null</code>, an <code>Integer</code> or the
+     * <code>Terminator</code> compiled from a <code>byte[]</code> string.
      */
     public Object getTerminator();
     /**
@@ -21,89 +21,100 @@ package org.async.chat;
 
 import java.nio.ByteBuffer;
 
-import org.simple.Bytes;
-
 /**
  * A convenience to encapsulate protocols. Usefull for instance to nest
  * a MULTIPART collector in a gzip decoder in a Chunk collector.
  * 
  * @pre collector = new Chat(protocol);
  * 
- * @p ...
+ * @p Data is collected as it comes, only the bytes left uncollected are 
+ * buffered until more data is handled. That buffer is compacted when at 
+ * most half full, grown by doubling otherwise and bounded by a maximum, so 
+ * that each byte is copied a constant number of times however the data is 
+ * split.
  * 
  */
-public class Chat implements Channel, Collector {
-    protected static final boolean _notEndsWith (
-        ByteBuffer haystack, int end, byte[] needle, int length
-        ) {
-        for (int i=0; i < length; i++) {
-            if (haystack.get(end+i) != needle[i]) {
-                return true;
-            }
-        }
-        return false;
-    }
-    protected static final int _findPrefixAtEnd (
-        ByteBuffer haystack, byte[] needle
-        ) {
-        int end = haystack.limit();
-        int l = needle.length - 1;
-        while (l > 0 && _notEndsWith(haystack, end-l, needle, l)) {
-            l--;
+public class Chat implements Channel, SliceCollector {
+    /**
+     * The default maximum number of bytes buffered, 64KB.
+     */
+    public static final int LIMIT = 65536;
+    
+    private static final String 
+    ERROR_TOO_MUCH = "too much data buffered";
+    
+    protected static final void _collectIn (
+        Collector collector, int length, ByteBuffer buffer, ByteBuffer view
+        ) throws Throwable {
+        if (view == null) {
+            byte[] data = new byte[length];
+            buffer.get(data);
+            collector.handleData(data);
+        } else {
+            int pos = buffer.position();
+            view.clear();
+            view.position(pos);
+            view.limit(pos + length);
+            buffer.position(pos + length);
+            ((SliceCollector) collector).handleSlice(view);
         }
-        return l;
-    }
-    protected static final byte[] _collectIn (
-        int length, ByteBuffer buffer
-        ) {
-        byte[] data = new byte[length];
-        buffer.get(data);
-        return data;
     }
+    /**
+     * Collect a buffer's remaining bytes for a channel's collector, until
+     * it stalls.
+     * 
+     * @p The terminator is searched directly in the buffer, bytes that may
+     * begin a terminator split between reads are left in the buffer, and 
+     * the bytes collected are handed as read-only views of the buffer to 
+     * collectors that implement <code>SliceCollector</code>, so that the 
+     * common path allocates no byte arrays.
+     * 
+     * @param channel which terminator is updated
+     * @param collector of data and terminators
+     * @param buffer to collect from
+     * @return <code>true</code> if the collector stalled
+     * @throws Throwable
+     */
     public static final boolean collect (
         Channel channel, Collector collector, ByteBuffer buffer
         ) throws Throwable {
         Object terminator;
+        ByteBuffer view = null;
+        if (collector instanceof SliceCollector) {
+            view = buffer.asReadOnlyBuffer();
+        }
         int lb = buffer.remaining();
-        byte[] bytes = new byte[lb];
-        int offset = buffer.position();
-        buffer.get(bytes);
-        buffer.position(offset);
         while (lb > 0) {
             terminator = channel.getTerminator();
             if (terminator == null) { // collect all
-                collector.handleData(_collectIn(lb, buffer));
+                _collectIn(collector, lb, buffer, view);
             } else if (terminator instanceof Integer) {
                 int t = ((Integer)terminator).intValue();
                 if (lb < t) { // collect part of chunk
                     channel.setTerminator(t - lb);
-                    collector.handleData(_collectIn(lb, buffer));
+                    _collectIn(collector, lb, buffer, view);
                 } else { // collect end of a chunk and terminate 
                     channel.setTerminator(0);
-                    collector.handleData(_collectIn(t, buffer));
+                    _collectIn(collector, t, buffer, view);
                     if (collector.handleTerminator()) {
                         return true;
                     }
                 }
             } else { // look for a terminator
-                byte[] needle = (byte[]) terminator;
+                Terminator matcher = (Terminator) terminator;
                 int pos = buffer.position();
-                int found = Bytes.find(needle, bytes, pos - offset);
-                if (found < 0) { // not found, look for a prefix at the end.
-                    found = _findPrefixAtEnd(buffer, needle);
-                    if (found == 0) {
-                        collector.handleData(_collectIn(lb, buffer));
-                    } else if (found != lb) {
-                        collector.handleData(_collectIn(lb-found, buffer));
+                int found = matcher.find(buffer, pos);
+                if (found < 0) { // not found, keep a prefix at the end.
+                    found = matcher.matched();
+                    if (found < lb) {
+                        _collectIn(collector, lb - found, buffer, view);
                     }
                     break;
                 } else { // found, maybe collect and terminate.
-                    if (found > 0) {
-                        collector.handleData(_collectIn(
-                            found - pos, buffer
-                            ));
+                    if (found > pos) {
+                        _collectIn(collector, found - pos, buffer, view);
                     }
-                    buffer.position(offset + found + needle.length);
+                    buffer.position(found + matcher.bytes().length);
                     if (collector.handleTerminator()) {
                         return true;
                     }
@@ -116,9 +127,22 @@ public class Chat implements Channel, Collector {
     private ByteBuffer _buffer;
     private Collector _collector;
     private Object _terminator = null;
+    private Terminator _compiled = null;
     private boolean _stalled = false;
+    private int _limit;
     public Chat(Protocol protocol) {
+        this(protocol, LIMIT);
+    };
+    /**
+     * Encapsulate a protocol, buffering at most <code>limit</code> bytes 
+     * left uncollected.
+     * 
+     * @param protocol to encapsulate
+     * @param limit of bytes buffered
+     */
+    public Chat(Protocol protocol, int limit) {
         _collector = protocol;
+        _limit = limit;
         protocol.channel = this;
     };
     public Object getTerminator() {
@@ -131,28 +155,60 @@ public class Chat implements Channel, Collector {
         _terminator = terminator;
     }
     public void setTerminator(byte[] terminator) {
-        _terminator = terminator;
+        _compiled = Terminator.compile(_compiled, terminator);
+        _terminator = _compiled;
     }
     public void handleData(byte[] data) throws Throwable {
-        if (_buffer == null) {
-            _buffer = ByteBuffer.wrap(data);
+        handleSlice(ByteBuffer.wrap(data));
+    }
+    public void handleSlice(ByteBuffer slice) throws Throwable {
+        if (_buffer == null || !_buffer.hasRemaining()) {
+            _stalled = collect(this, _collector, slice);
+            if (slice.hasRemaining()) {
+                _append(slice);
+            }
         } else {
-            byte[] left = new byte[_buffer.remaining()];
-            _buffer.get(left);
-            _buffer = ByteBuffer.allocate(left.length + data.length);
-            _buffer.put(left);
-            _buffer.put(data);
-            _buffer.flip();
+            _append(slice);
+            _stalled = collect(this, _collector, _buffer);
         }
-        _stalled = collect(this, _collector, _buffer);
-        if (_buffer.remaining() > 0) {
-            _buffer.compact();
-        } else {
-            _buffer = null;
+    }
+    /**
+     * Append bytes after the ones left uncollected, compacting or growing
+     * the buffer when its end is reached.
+     */
+    private void _append (ByteBuffer data) throws Throwable {
+        int length = data.remaining();
+        int left = (_buffer == null) ? 0 : _buffer.remaining();
+        if (left + length > _limit) {
+            throw new Exception(ERROR_TOO_MUCH);
+        }
+        if (_buffer == null) {
+            _buffer = ByteBuffer.allocate(
+                Math.min(Math.max(1024, length), _limit)
+                );
+            _buffer.limit(0);
+        } else if (_buffer.capacity() - _buffer.limit() < length) {
+            if (left + length <= _buffer.capacity() / 2) {
+                _buffer.compact();
+                _buffer.flip();
+            } else {
+                ByteBuffer grown = ByteBuffer.allocate(Math.min(
+                    Math.max(_buffer.capacity() * 2, left + length), _limit
+                    ));
+                grown.put(_buffer);
+                grown.flip();
+                _buffer = grown;
+            }
         }
+        int position = _buffer.position();
+        int end = _buffer.limit();
+        _buffer.limit(end + length);
+        _buffer.position(end);
+        _buffer.put(data);
+        _buffer.position(position);
     }
     public boolean handleTerminator() throws Throwable {
-        if (_buffer != null) {
+        if (_buffer != null && _buffer.hasRemaining()) {
             _stalled = collect(this, _collector, _buffer);
             _buffer = null;
         }
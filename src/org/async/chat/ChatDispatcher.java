@@ -20,6 +20,7 @@
 package org.async.chat;
 
 import org.async.core.Loop;
+import org.async.core.OutputQueue;
 import org.async.core.Pipeline;
 
 import java.nio.ByteBuffer;
@@ -27,6 +28,7 @@ import java.nio.ByteBuffer;
 public abstract class ChatDispatcher extends Pipeline 
 implements Channel, Collector  {
     protected Object _terminator;
+    protected Terminator _compiled = null;
     public ChatDispatcher () {
         super();
     }
@@ -49,7 +51,8 @@ implements Channel, Collector  {
         if (terminator == null) {
             throw new Error("null byte[] terminator");
         } else if (terminator.length > 0){
-            _terminator = terminator;
+            _compiled = Terminator.compile(_compiled, terminator);
+            _terminator = _compiled;
         } else {
             throw new Error("empty byte[] terminator");
         }
@@ -61,62 +64,90 @@ implements Channel, Collector  {
         if (data == null) {
             throw new Error("null byte[] pushed");
         } else if (data.length > 0){
-            _fifoOut.add(ByteBuffer.wrap(data));
+            _fifoOut.addBuffer(ByteBuffer.wrap(data));
+            _queue(data.length);
+            interest();
         }
     }
     public final void push (Producer producer) {
         if (producer == null) {
             throw new Error("null Producer pushed");
         } else {
-            _fifoOut.add(producer);
+            _fifoOut.addObject(producer);
+            interest();
         }
     }
     public final void collect () throws Throwable {
         _stalledIn = Chat.collect(this, this, _bufferIn);
     }
     public boolean writable () {
-        if (_bufferOut.position() > 0) {
+        if (_pending()) {
             return true;
         } else if (_fifoOut.isEmpty()) {
             return !_connected;
         } else {
-            Object queued = _fifoOut.peek(); 
-            return !(
+            if (
                 _connected &&
-                (queued instanceof Producer) && 
-                ((Producer) queued).stalled()
-                );
+                _fifoOut.kind() == OutputQueue.OBJECT && 
+                ((Producer) _fifoOut.peek()).stalled()
+                ) {
+                interest(); // poll a stalled producer again in the next run
+                return false;
+            }
+            return true;
         }
     }
     public final boolean produce () throws Throwable {
-        Object first;
+        if (_full()) {
+            return true; // send the bytes staged first
+        }
         while (!_fifoOut.isEmpty()) {
-            first = _fifoOut.getFirst();
-            if (first == null) {
-                if (_bufferOut.position() == 0) {
-                    _bufferOut.limit(0);
-                    return false;
-                } else {
+            switch (_fifoOut.kind()) {
+            case OutputQueue.CLOSE:
+                return _pending();
+            case OutputQueue.BUFFER:
+            	if (_stage((ByteBuffer) _fifoOut.removeFirst())) {
                     return true;
-                }
-            } else if (first instanceof Producer){
-                Producer producer = (Producer) first;
+            	}
+                break;
+            default:
+                Producer producer = (Producer) _fifoOut.peek();
+                RegionProducer regions = (producer instanceof RegionProducer) ?
+                    (RegionProducer) producer: null;
+                BufferProducer buffers = (producer instanceof BufferProducer) ?
+                    (BufferProducer) producer: null;
                 byte[] data;
-                while (!producer.stalled()) {
+                ByteBuffer buffer;
+                while (true) {
+                    if (producer.stalled()) {
+                        return true;
+                    }
+                    if (regions != null) {
+                        _region = regions.region();
+                        if (_region != null) {
+                            return true; // send staged bytes, then the region
+                        }
+                    }
+                    if (buffers != null) {
+                        buffer = buffers.buffer();
+                        if (buffer != null) {
+                            _queue(buffer.remaining());
+                            if (_stage(buffer)) {
+                                return true;
+                            }
+                            continue;
+                        }
+                    }
                 	data = producer.more();
                 	if (data == null) {
                 		_fifoOut.removeFirst();
-                        return true;
-                	} else if (_fillOut(data)) {
+                        break;
+                	}
+                    _queue(data.length);
+                	if (_stage(ByteBuffer.wrap(data))) {
                         return true;
                 	}
                 }
-                return true;
-            } else {
-                _fifoOut.removeFirst();
-            	if (_fillOut(((ByteBuffer) first).array())) {
-                    return true;
-            	}
             }
         }
         return true;
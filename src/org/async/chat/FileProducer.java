@@ -0,0 +1,102 @@
+/*  Copyright (C) 2007 Laurent A.V. Szyster
+ *
+ *  This library is free software; you can redistribute it and/or modify
+ *  it under the terms of version 2 of the GNU General Public License as
+ *  published by the Free Software Foundation.
+ *  
+ *   http://www.gnu.org/copyleft/gpl.html
+ *  
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *  
+ *  You should have received a copy of the GNU General Public License
+ *  along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ *  USA
+ *  
+ */
+
+package org.async.chat;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.async.core.FileRegion;
+
+/**
+ * Produce a file's content as a region transferred from the file to the 
+ * socket by a <code>ChatDispatcher</code>, or as chunks of bytes read when 
+ * the producer is wrapped by another that frames its output.
+ * 
+ * @p A file is opened only when its bytes are first produced, so that the 
+ * producers dropped with a closed channel's output queue do not hold open
+ * file descriptors.
+ * 
+ * @h3 Synopsis
+ * 
+ * @pre dispatcher.push(new FileProducer(new File("index.html")));
+ */
+public class FileProducer implements RegionProducer, SizedProducer {
+    protected File _file = null;
+    protected FileRegion _region;
+    protected long _size;
+    protected int _chunk = 16384;
+    public FileProducer (File file) throws IOException {
+        if (!file.isFile()) {
+            throw new FileNotFoundException(file.getPath());
+        }
+        _file = file;
+        _size = file.length();
+    }
+    public FileProducer (FileRegion region) {
+        _region = region;
+        _size = region.remaining();
+    }
+    /**
+     * @return the number of bytes produced
+     */
+    public final long size () {
+        return _size;
+    }
+    public final boolean stalled () {
+        return false;
+    }
+    /**
+     * Open the file's region of the size announced, if not yet opened.
+     */
+    protected final void _open () throws IOException {
+        if (_file != null) {
+            _region = new FileRegion(
+                (new FileInputStream(_file)).getChannel(), 0, _size
+                );
+            _file = null;
+        }
+    }
+    public final FileRegion region () throws IOException {
+        _open();
+        FileRegion region = _region;
+        _region = null;
+        return region;
+    }
+    public final byte[] more () throws Throwable {
+        _open();
+        if (_region == null) {
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(
+            (int) Math.min(_chunk, _region.remaining())
+            );
+        while (buffer.hasRemaining()) {
+            _region.read(buffer);
+        }
+        if (_region.remaining() == 0) {
+            _region.close();
+            _region = null;
+        }
+        return buffer.array();
+    }
+}
@@ -0,0 +1,44 @@
+/*  Copyright (C) 2007 Laurent A.V. Szyster
+ *
+ *  This library is free software; you can redistribute it and/or modify
+ *  it under the terms of version 2 of the GNU General Public License as
+ *  published by the Free Software Foundation.
+ *  
+ *   http://www.gnu.org/copyleft/gpl.html
+ *  
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *  
+ *  You should have received a copy of the GNU General Public License
+ *  along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ *  USA
+ *  
+ */
+
+package org.async.chat;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A collector of read-only views of its channel's input buffer, that 
+ * spares the copy of each chunk collected into a new <code>byte[]</code>.
+ * 
+ * @p The bytes collected are the ones between the view's position and 
+ * limit, the view is valid only for the duration of the call: it is reused 
+ * and its content overwritten by the next read. Implementations copy what 
+ * they need to keep.
+ * 
+ * @p Chunks are passed to <code>handleData</code> only to the collectors 
+ * that do not implement this interface.
+ */
+public interface SliceCollector extends Collector {
+    /**
+     * Handle incoming data, without keeping a reference to the view.
+     * 
+     * @param slice of input to collect
+     * @throws Throwable
+     */
+    public void handleSlice (ByteBuffer slice) throws Throwable;
+}
@@ -0,0 +1,67 @@
+/*  Copyright (C) 2007 Laurent A.V. Szyster
+ *
+ *  This library is free software; you can redistribute it and/or modify
+ *  it under the terms of version 2 of the GNU General Public License as
+ *  published by the Free Software Foundation.
+ *  
+ *   http://www.gnu.org/copyleft/gpl.html
+ *  
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *  
+ *  You should have received a copy of the GNU General Public License
+ *  along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ *  USA
+ *  
+ */
+
+package org.async.chat;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Produce a buffer's remaining bytes, handed whole to a 
+ * <code>ChatDispatcher</code> or copied in chunks when the producer is 
+ * wrapped by another that frames its output.
+ * 
+ * @p For instance, to send a read-only view of a memory-mapped file 
+ * shared by concurrent responses:
+ * 
+ * @pre dispatcher.push(new SliceProducer(mapped.duplicate()));
+ */
+public class SliceProducer implements BufferProducer, SizedProducer {
+    protected ByteBuffer _buffer;
+    protected long _size;
+    protected int _chunk = 16384;
+    public SliceProducer (ByteBuffer buffer) {
+        _buffer = buffer;
+        _size = buffer.remaining();
+    }
+    /**
+     * @return the number of bytes produced
+     */
+    public final long size () {
+        return _size;
+    }
+    public final boolean stalled () {
+        return false;
+    }
+    public final ByteBuffer buffer () {
+        ByteBuffer buffer = _buffer;
+        _buffer = null;
+        return buffer;
+    }
+    public final byte[] more () {
+        if (_buffer == null) {
+            return null;
+        }
+        byte[] data = new byte[Math.min(_chunk, _buffer.remaining())];
+        _buffer.get(data);
+        if (!_buffer.hasRemaining()) {
+            _buffer = null;
+        }
+        return data;
+    }
+}
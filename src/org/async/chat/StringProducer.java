@@ -21,10 +21,15 @@ package org.async.chat;
 
 import org.simple.Bytes;
 
-public class StringProducer implements Producer {
+public class StringProducer implements SizedProducer {
     private byte[] _buffer;
+    private long _size;
     public StringProducer (String buffer, String encoding) {
         _buffer = Bytes.encode(buffer, encoding);
+        _size = _buffer.length;
+    }
+    public long size() {
+        return _size;
     }
     public boolean stalled() {
         return false;
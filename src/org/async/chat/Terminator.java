@@ -0,0 +1,160 @@
+/*  Copyright (C) 2007 Laurent A.V. Szyster
+ *
+ *  This library is free software; you can redistribute it and/or modify
+ *  it under the terms of version 2 of the GNU General Public License as
+ *  published by the Free Software Foundation.
+ *  
+ *   http://www.gnu.org/copyleft/gpl.html
+ *  
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *  
+ *  You should have received a copy of the GNU General Public License
+ *  along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ *  USA
+ *  
+ */
+
+package org.async.chat;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A byte string terminator compiled once to be searched in a channel's 
+ * input, read after read.
+ * 
+ * @p The search skips ahead with the bad character table of Horspool's 
+ * algorithm and, when the input ends with a prefix of the terminator, 
+ * remembers how many bytes of it matched. Those bytes are left uncollected 
+ * at the start of the next input and the search resumes after them, byte 
+ * by byte along the terminator's failure table, instead of scanning them 
+ * again from the start.
+ * 
+ * @p A terminator holds the state of one search, channels compile their 
+ * own when a new <code>byte[]</code> is set and reset it otherwise.
+ */
+public final class Terminator {
+    protected final byte[] _needle;
+    protected final int[] _skip = new int[256];
+    protected final int[] _fail;
+    protected int _matched = 0;
+    /**
+     * Compile a terminator.
+     * 
+     * @param needle the non-empty byte string to search
+     */
+    public Terminator (byte[] needle) {
+        int m = needle.length;
+        _needle = needle;
+        for (int c = 0; c < 256; c++) {
+            _skip[c] = m;
+        }
+        for (int i = 0; i < m - 1; i++) {
+            _skip[needle[i] & 0xff] = m - 1 - i;
+        }
+        _fail = new int[m];
+        for (int i = 1, k = 0; i < m; i++) {
+            while (k > 0 && needle[i] != needle[k]) {
+                k = _fail[k - 1];
+            }
+            if (needle[i] == needle[k]) {
+                k++;
+            }
+            _fail[i] = k;
+        }
+    }
+    /**
+     * Reset a compiled terminator if it searches the same byte string or
+     * compile a new one.
+     * 
+     * @param compiled terminator or <code>null</code>
+     * @param needle the non-empty byte string to search
+     * @return a terminator searching <code>needle</code>
+     */
+    public static final Terminator compile (
+        Terminator compiled, byte[] needle
+        ) {
+        if (compiled != null && compiled._needle == needle) {
+            compiled._matched = 0;
+            return compiled;
+        }
+        return new Terminator(needle);
+    }
+    /**
+     * @return the byte string searched
+     */
+    public final byte[] bytes () {
+        return _needle;
+    }
+    /**
+     * @return the number of bytes matched at the end of the last input
+     */
+    public final int matched () {
+        return _matched;
+    }
+    /**
+     * Forget a partial match.
+     */
+    public final void reset () {
+        _matched = 0;
+    }
+    protected final int _next (int q, byte b) {
+        while (q > 0 && _needle[q] != b) {
+            q = _fail[q - 1];
+        }
+        if (_needle[q] == b) {
+            q++;
+        }
+        return q;
+    }
+    /**
+     * Find this terminator in a buffer, from a position where the bytes
+     * matched at the end of the previous input are left.
+     * 
+     * @param haystack to search up to its limit
+     * @param from the position to start from
+     * @return the position of the terminator found or <code>-1</code>
+     */
+    public final int find (ByteBuffer haystack, int from) {
+        int m = _needle.length;
+        int limit = haystack.limit();
+        int q = _matched;
+        int i = from + q;
+        while (q > 0 && i < limit) {
+            q = _next(q, haystack.get(i++));
+            if (q == m) {
+                _matched = 0;
+                return i - m;
+            }
+        }
+        if (q > 0) {
+            _matched = q;
+            return -1;
+        }
+        int last = m - 1;
+        byte tail = _needle[last];
+        byte b;
+        int j = i, k;
+        while (j + last < limit) {
+            b = haystack.get(j + last);
+            if (b == tail) {
+                k = last - 1;
+                while (k >= 0 && haystack.get(j + k) == _needle[k]) {
+                    k--;
+                }
+                if (k < 0) {
+                    _matched = 0;
+                    return j;
+                }
+            }
+            j = j + _skip[b & 0xff];
+        }
+        for (j = Math.max(i, limit - last); j < limit; j++) {
+            q = _next(q, haystack.get(j));
+        }
+        _matched = q;
+        return -1;
+    }
+}
@@ -0,0 +1,225 @@
+/*  Copyright (C) 2007 Laurent A.V. Szyster
+ *
+ *  This library is free software; you can redistribute it and/or modify
+ *  it under the terms of version 2 of the GNU General Public License as
+ *  published by the Free Software Foundation.
+ *  
+ *   http://www.gnu.org/copyleft/gpl.html
+ *  
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *  
+ *  You should have received a copy of the GNU General Public License
+ *  along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ *  USA
+ *  
+ */
+
+package org.async.core;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A pool of direct buffers, borrowed by the pipelines of a loop only while 
+ * they have input in flight and returned when they are idle.
+ * 
+ * @p Buffers come in size classes, powers of two from 1KB to 64KB, sliced 
+ * out of direct slabs allocated once and never released. Borrowing rounds 
+ * a size up to its class and reuses the last buffer returned for that 
+ * class. Larger sizes get a heap buffer that is not pooled.
+ * 
+ * @p A pool is not thread-safe, buffers must be borrowed and returned by 
+ * the thread dispatching its loop.
+ * 
+ * @h3 Synopsis
+ * 
+ * @pre ByteBuffer buffer = Static.loop.buffers().borrow(16384);
+ *try {
+ *    ...
+ *} finally {
+ *    Static.loop.buffers().release(buffer);
+ *}
+ */
+public final class BufferPool {
+    /**
+     * The size of the smallest class, 1KB.
+     */
+    public static final int MIN = 1 << 10;
+    /**
+     * The size of the largest class, 64KB.
+     */
+    public static final int MAX = 1 << 16;
+    protected static final int _CLASSES = 7;
+    protected final int _slab;
+    protected final ByteBuffer[][] _free = new ByteBuffer[_CLASSES][];
+    protected final int[] _available = new int[_CLASSES];
+    protected final int[] _allocated = new int[_CLASSES];
+    protected final int[] _borrowed = new int[_CLASSES];
+    protected final int[] _peak = new int[_CLASSES];
+    protected long _reserved = 0;
+    protected long _borrows = 0;
+    protected long _unpooled = 0;
+    /**
+     * Create a pool of direct buffers sliced out of 1MB slabs.
+     */
+    public BufferPool () {
+        this(1 << 20);
+    }
+    /**
+     * Create a pool of direct buffers sliced out of slabs of a given size,
+     * a slab holds at least one buffer of the largest class.
+     * 
+     * @param slab size in bytes
+     */
+    public BufferPool (int slab) {
+        _slab = Math.max(slab, MAX);
+        for (int i = 0; i < _CLASSES; i++) {
+            _free[i] = new ByteBuffer[16];
+        }
+    }
+    protected static final int _class (int size) {
+        if (size <= MIN) {
+            return 0;
+        }
+        return 32 - Integer.numberOfLeadingZeros(size - 1) - 10;
+    }
+    /**
+     * Borrow a cleared buffer of at least <code>size</code> bytes.
+     * 
+     * @param size in bytes
+     * @return a buffer to release when it is not used anymore
+     */
+    public final ByteBuffer borrow (int size) {
+        if (size > MAX) {
+            _unpooled++;
+            return ByteBuffer.wrap(new byte[size]);
+        }
+        int c = _class(size);
+        if (_available[c] == 0) {
+            _allocate(c);
+        }
+        ByteBuffer buffer = _free[c][--_available[c]];
+        _free[c][_available[c]] = null;
+        buffer.clear();
+        _borrows++;
+        if (++_borrowed[c] > _peak[c]) {
+            _peak[c] = _borrowed[c];
+        }
+        return buffer;
+    }
+    /**
+     * Return a borrowed buffer to this pool, dropping the ones it did not
+     * lend.
+     * 
+     * @param buffer to release
+     */
+    public final void release (ByteBuffer buffer) {
+        int capacity = buffer.capacity();
+        if (!buffer.isDirect() || capacity > MAX) {
+            return;
+        }
+        int c = _class(capacity);
+        if ((MIN << c) != capacity || _borrowed[c] == 0) {
+            return;
+        }
+        if (_available[c] == _free[c].length) {
+            ByteBuffer[] free = new ByteBuffer[_available[c] * 2];
+            System.arraycopy(_free[c], 0, free, 0, _available[c]);
+            _free[c] = free;
+        }
+        _free[c][_available[c]++] = buffer;
+        _borrowed[c]--;
+    }
+    protected final void _allocate (int c) {
+        int size = MIN << c;
+        ByteBuffer slab = ByteBuffer.allocateDirect(_slab);
+        int n = _slab / size;
+        if (_free[c].length < _available[c] + n) {
+            ByteBuffer[] free = new ByteBuffer[_available[c] + n];
+            System.arraycopy(_free[c], 0, free, 0, _available[c]);
+            _free[c] = free;
+        }
+        for (int i = 0; i < n; i++) {
+            slab.limit(i * size + size);
+            slab.position(i * size);
+            _free[c][_available[c]++] = slab.slice();
+        }
+        _allocated[c] = _allocated[c] + n;
+        _reserved = _reserved + _slab;
+    }
+    /**
+     * @return the number of buffers borrowed and not released
+     */
+    public final int borrowed () {
+        int borrowed = 0;
+        for (int i = 0; i < _CLASSES; i++) {
+            borrowed = borrowed + _borrowed[i];
+        }
+        return borrowed;
+    }
+    /**
+     * @return the number of bytes borrowed and not released
+     */
+    public final long borrowedBytes () {
+        long bytes = 0;
+        for (int i = 0; i < _CLASSES; i++) {
+            bytes = bytes + ((long) _borrowed[i] * (MIN << i));
+        }
+        return bytes;
+    }
+    /**
+     * @return the number of direct bytes allocated in slabs
+     */
+    public final long reserved () {
+        return _reserved;
+    }
+    /**
+     * @return the number of buffers borrowed since this pool was created
+     */
+    public final long borrows () {
+        return _borrows;
+    }
+    /**
+     * Get a JSON snapshot of this pool's occupancy.
+     * 
+     * @return a JSON object string
+     */
+    public final String json () {
+        StringBuilder sb = new StringBuilder();
+        json(sb);
+        return sb.toString();
+    }
+    protected final void json (StringBuilder sb) {
+        sb.append("{\"reserved\": ");
+        sb.append(_reserved);
+        sb.append(", \"borrowed\": ");
+        sb.append(borrowedBytes());
+        sb.append(", \"borrows\": ");
+        sb.append(_borrows);
+        sb.append(", \"unpooled\": ");
+        sb.append(_unpooled);
+        sb.append(", \"classes\": {");
+        boolean first = true;
+        for (int i = 0; i < _CLASSES; i++) {
+            if (_allocated[i] == 0) {
+                continue;
+            }
+            if (!first) {
+                sb.append(", ");
+            }
+            first = false;
+            sb.append('"');
+            sb.append(MIN << i);
+            sb.append("\": {\"allocated\": ");
+            sb.append(_allocated[i]);
+            sb.append(", \"borrowed\": ");
+            sb.append(_borrowed[i]);
+            sb.append(", \"peak\": ");
+            sb.append(_peak[i]);
+            sb.append('}');
+        }
+        sb.append("}}");
+    }
+}
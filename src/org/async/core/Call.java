@@ -20,28 +20,64 @@
 package org.async.core;
 
 import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.simple.Fun;
 
+/**
+ * A function applied by a loop, with a continuation deferred to that loop 
+ * once the call is finished.
+ * 
+ * @p Dispatchers are finished when closed, and calls scheduled or deferred 
+ * are finished by their loop once applied and not recurring. Applications 
+ * that hold on a call must finish it explicitly.
+ */
 public abstract class Call implements Fun {
-    protected Loop _loop = Static.loop;
+    protected Loop _loop = Static.current();
     public Fun finalization = null;
     /**
-     * Defer an asynchronous call to this finalization if there is one.
+     * Defer an asynchronous call to this finalization if there is one, 
+     * at most once.
      */
-    public final void finalize () {
-        if (finalization != null) {
-            synchronized (_loop) {
-                _loop._defered.add(finalization);
-            }
+    public final void finish () {
+        Fun continuation = finalization;
+        if (continuation != null) {
             finalization = null;
+            _loop.defer(continuation);
+        }
+    }
+    /**
+     * Count down finished calls and defer a joining call after the last.
+     */
+    protected static final class Join implements Fun {
+        private AtomicInteger _count = new AtomicInteger(0);
+        private Call _joining;
+        protected Join (Call joining) {
+            _joining = joining;
+        }
+        public final Object apply (Object input) {
+            if (_count.decrementAndGet() == 0) {
+                _joining._loop.defer(_joining);
+            }
+            return null;
         }
     }
+    /**
+     * Defer a joining call once, after all calls joined are finished.
+     * 
+     * @param finalized calls to join
+     * @param joining call
+     * @return the joining call
+     */
     public static final Call join (Iterable<Call> finalized, Call joining) {
+        Join join = new Join(joining);
+        join._count.incrementAndGet(); // until all calls are counted
         Iterator<Call> calls = finalized.iterator();
         while (calls.hasNext()) {
-            calls.next().finalization = joining;
+            join._count.incrementAndGet();
+            calls.next().finalization = join;
         }
+        join.apply(null);
         return joining;
     }
     protected static class List implements Fun {
@@ -22,9 +22,11 @@ package org.async.core;
 import java.nio.ByteBuffer;
 import java.nio.channels.ByteChannel;
 import java.nio.channels.DatagramChannel;
+import java.nio.channels.GatheringByteChannel;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.channels.spi.AbstractSelectableChannel;
 
 import java.net.SocketAddress;
@@ -65,11 +67,32 @@ public abstract class Dispatcher extends Call {
     protected boolean _connected = false;
     protected SocketAddress _addr; 
     protected String _name = "";
+    /**
+     * Set to <code>true</code> by dispatchers that signal changes of their
+     * readable or writable status with <code>interest</code> instead of 
+     * being polled by their loop at each run.
+     */
+    protected boolean _explicit = false;
+    protected boolean _interest = false;
+    protected int _ops = 0;
+    /**
+     * This dispatcher's identity in its loop's tables, or <code>-1</code>
+     * if it is not registered.
+     */
+    protected int _slot = -1;
+    protected int _polledSlot = -1;
+    /**
+     * When this dispatcher started to wait for admission in its loop's
+     * selector, or <code>-1</code> if it is not waiting.
+     */
+    protected long _waiting = -1;
+    protected long _admitted = 0;
+    protected Quota _quota = null;
     protected final void _add () {
-        _loop._dispatched.put(this._name, this);
+        _loop._add(this);
     }
     protected final void _remove () {
-        _loop._dispatched.remove(_name);
+        _loop._remove(this);
         _channel = null;
         if (_key != null) {
             _key.cancel();
@@ -142,7 +165,7 @@ public abstract class Dispatcher extends Call {
      *
      */
     public Dispatcher () {
-        when = Static.loop._now;
+        when = _loop._now;
     }
     /**
      * Create a new dispatcher to be added to a given <code>Loop</code>.
@@ -157,6 +180,22 @@ public abstract class Dispatcher extends Call {
     public String toString () {
         return _name;
     }
+    /**
+     * Signal a change of this dispatcher's readable or writable status to
+     * its loop, which will poll it once in its next run.
+     * 
+     * @p This is a no-op for dispatchers polled at each run of their loop,
+     * and for the ones that already signaled their interest. Note that the
+     * loop polls explicit dispatchers after each of their I/O events, so
+     * that only state changes made outside of their handlers need to be 
+     * signaled (for instance a push in their output queue).
+     */
+    public final void interest () {
+        if (_explicit && !_interest && _channel != null) {
+            _interest = true;
+            _loop._interests.add(this);
+        }
+    }
     /**
      * Log a message to this dispatcher's loop logging interface, categorized
      * by this dispatcher's name.
@@ -343,6 +382,44 @@ public abstract class Dispatcher extends Call {
         }
         return sent;
     }
+    /**
+     * Try to write the remaining of a sequence of buffers to this 
+     * dispatcher's socket with a single gathering write, account and 
+     * return the number of bytes sent. 
+     * 
+     * @param buffers to write from
+     * @param offset of the first buffer to write
+     * @param length the number of buffers to write
+     * @return the number of bytes sent
+     * @throws Throwable
+     */
+    public long sendv (ByteBuffer[] buffers, int offset, int length) 
+    throws Throwable {
+        long sent = ((GatheringByteChannel) _channel).write(
+            buffers, offset, length
+            );
+        if (sent > 0) {
+            bytesOut = bytesOut + sent;
+            whenOut = _loop._now;
+        }
+        return sent;
+    }
+    /**
+     * Try to transfer the remaining of a file region to this dispatcher's
+     * socket, account and return the number of bytes sent. 
+     * 
+     * @param region to transfer from
+     * @return the number of bytes sent
+     * @throws Throwable
+     */
+    public long transfer (FileRegion region) throws Throwable {
+        long sent = region.transferTo((WritableByteChannel) _channel);
+        if (sent > 0) {
+            bytesOut = bytesOut + sent;
+            whenOut = _loop._now;
+        }
+        return sent;
+    }
     /**
      * Set the dispatcher address, update the dispatcher's name to the
      * address string representation and try to bind a socket to that
@@ -433,6 +510,7 @@ public abstract class Dispatcher extends Call {
         } finally {
             _connected = false;
             _remove();
+            finish();
         }
     }
     // To override ...
@@ -508,8 +586,8 @@ public abstract class Dispatcher extends Call {
      * <code>handleClose</code>. 
      * 
      * @p To handle the finalization of a dispatcher, to do something once
-     * it has been closed, assign instead a <code>Simple.Function</code> to 
-     * its <code>continuation</code>.
+     * it has been closed, assign instead a <code>Fun</code> to its
+     * <code>finalization</code>, deferred by <code>close</code>.
      */
     public abstract void handleClose() throws Throwable;
     /**
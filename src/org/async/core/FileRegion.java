@@ -0,0 +1,117 @@
+/*  Copyright (C) 2007 Laurent A.V. Szyster
+ *
+ *  This library is free software; you can redistribute it and/or modify
+ *  it under the terms of version 2 of the GNU General Public License as
+ *  published by the Free Software Foundation.
+ *  
+ *   http://www.gnu.org/copyleft/gpl.html
+ *  
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *  
+ *  You should have received a copy of the GNU General Public License
+ *  along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ *  USA
+ *  
+ */
+
+package org.async.core;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * A region of a file to send, transferred by the pipelines directly from 
+ * the file to their socket with <code>FileChannel.transferTo</code>, 
+ * without copying its bytes through the heap when the OS supports it.
+ * 
+ * @p A region can also be read into buffers, for the protocols that must 
+ * frame or transform its bytes before sending them.
+ */
+public final class FileRegion {
+    protected FileChannel _file;
+    protected long _position;
+    protected long _end;
+    /**
+     * A region of an open file channel, closed with the region.
+     * 
+     * @param file channel to transfer from
+     * @param position of the region's first byte
+     * @param count of bytes in the region
+     */
+    public FileRegion (FileChannel file, long position, long count) {
+        _file = file;
+        _position = position;
+        _end = position + count;
+    }
+    /**
+     * A region of a whole file.
+     * 
+     * @param file to open
+     * @throws IOException
+     */
+    public FileRegion (File file) throws IOException {
+        _file = (new FileInputStream(file)).getChannel();
+        _position = 0;
+        _end = _file.size();
+    }
+    /**
+     * @return the number of bytes left to transfer or read
+     */
+    public final long remaining () {
+        return _end - _position;
+    }
+    /**
+     * Transfer as many bytes left as the target accepts.
+     * 
+     * @param target channel
+     * @return the number of bytes transferred
+     * @throws IOException if the file was truncated before the region's end
+     */
+    public final long transferTo (WritableByteChannel target) 
+    throws IOException {
+        long transferred = _file.transferTo(_position, _end - _position, target);
+        if (transferred > 0) {
+            _position = _position + transferred;
+        } else if (_position < _end && _position >= _file.size()) {
+            throw new IOException("file truncated");
+        }
+        return transferred;
+    }
+    /**
+     * Read bytes left into a buffer.
+     * 
+     * @param buffer to fill
+     * @return the number of bytes read
+     * @throws IOException
+     */
+    public final int read (ByteBuffer buffer) throws IOException {
+        long left = _end - _position;
+        if (buffer.remaining() > left) {
+            buffer.limit(buffer.position() + (int) left);
+        }
+        int read = _file.read(buffer, _position);
+        if (read > 0) {
+            _position = _position + read;
+        } else if (read < 0) {
+            throw new IOException("file truncated");
+        }
+        return read;
+    }
+    /**
+     * Close the region's file channel.
+     */
+    public final void close () {
+        try {
+            _file.close();
+        } catch (IOException e) {
+            // ... the region is done anyway
+        }
+    }
+}
@@ -0,0 +1,328 @@
+/*  Copyright (C) 2007 Laurent A.V. Szyster
+ *
+ *  This library is free software; you can redistribute it and/or modify
+ *  it under the terms of version 2 of the GNU General Public License as
+ *  published by the Free Software Foundation.
+ *  
+ *   http://www.gnu.org/copyleft/gpl.html
+ *  
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *  
+ *  You should have received a copy of the GNU General Public License
+ *  along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ *  USA
+ *  
+ */
+
+package org.async.core;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.lang.management.ManagementFactory;
+import javax.management.ObjectName;
+
+/**
+ * Counters and histograms of a loop's runs: time spent waiting in select, 
+ * handling I/O, applying scheduled events and defered functions, keys 
+ * selected, queue depths and handler time per class of dispatcher.
+ * 
+ * @h3 Synopsis
+ * 
+ * @pre Instruments instruments = Static.loop.instrument();
+ *instruments.register("http");
+ *instruments.report(new Instruments.Sink () {
+ *    public void publish (Instruments instruments) {
+ *        Static.loop.log(instruments.json());
+ *    }
+ *}, 60000);
+ * 
+ * @p Instruments are updated by their loop's thread only, other threads 
+ * read approximate values. A loop without instruments only tests for 
+ * <code>null</code> once per phase and once per I/O event handled.
+ */
+public final class Instruments implements InstrumentsMBean {
+    /**
+     * A histogram of positive values in buckets of powers of two.
+     */
+    public static final class Histogram {
+        protected long[] _buckets = new long[64];
+        protected long _count = 0;
+        protected long _sum = 0;
+        protected long _max = 0;
+        public final void add (long value) {
+            if (value < 0) {
+                value = 0;
+            }
+            _buckets[64 - Long.numberOfLeadingZeros(value)]++;
+            _count++;
+            _sum += value;
+            if (value > _max) {
+                _max = value;
+            }
+        }
+        public final long count () {
+            return _count;
+        }
+        public final long sum () {
+            return _sum;
+        }
+        public final long max () {
+            return _max;
+        }
+        /**
+         * Get an upper bound of a percentile of the values added.
+         * 
+         * @param percent of values
+         * @return the upper bound of the bucket holding that percentile
+         */
+        public final long percentile (double percent) {
+            long rank = (long) Math.ceil(_count * percent / 100);
+            long seen = 0;
+            for (int i = 0; i < 64; i++) {
+                seen += _buckets[i];
+                if (seen >= rank && seen > 0) {
+                    return Math.min((i == 0) ? 0: (1L << i) - 1, _max);
+                }
+            }
+            return _max;
+        }
+        protected final void json (StringBuilder sb) {
+            sb.append("{\"count\": ");
+            sb.append(_count);
+            sb.append(", \"sum\": ");
+            sb.append(_sum);
+            sb.append(", \"max\": ");
+            sb.append(_max);
+            sb.append(", \"p50\": ");
+            sb.append(percentile(50));
+            sb.append(", \"p99\": ");
+            sb.append(percentile(99));
+            sb.append("}");
+        }
+    }
+    /**
+     * The count and time of I/O events handled by a class of dispatcher.
+     */
+    protected static final class Handler {
+        long _count = 0;
+        long _nanos = 0;
+    }
+    /**
+     * A destination for the instruments published periodically.
+     */
+    public static interface Sink {
+        public void publish (Instruments instruments) throws Throwable;
+    }
+    protected static final class Report extends Scheduled {
+        private Instruments _instruments;
+        private Sink _sink;
+        private int _period;
+        public Report (Instruments instruments, Sink sink, int period) {
+            _instruments = instruments;
+            _sink = sink;
+            _period = period;
+        }
+        public final long apply (Loop loop) throws Throwable {
+            _sink.publish(_instruments);
+            return loop._now + _period;
+        }
+    }
+    protected Loop _loop;
+    protected long _runs = 0;
+    protected long _selected = 0;
+    protected long _handled = 0;
+    /**
+     * Microseconds waited in select.
+     */
+    public final Histogram select = new Histogram();
+    /**
+     * Microseconds spent registering interests and handling I/O events.
+     */
+    public final Histogram io = new Histogram();
+    /**
+     * Microseconds spent applying scheduled events.
+     */
+    public final Histogram scheduled = new Histogram();
+    /**
+     * Microseconds spent applying defered functions.
+     */
+    public final Histogram defered = new Histogram();
+    /**
+     * Keys selected per run.
+     */
+    public final Histogram keys = new Histogram();
+    /**
+     * Events scheduled and functions defered at the end of each I/O phase.
+     */
+    public final Histogram scheduledDepth = new Histogram();
+    public final Histogram deferedDepth = new Histogram();
+    protected ConcurrentHashMap<Class,Handler> _handlers = 
+        new ConcurrentHashMap();
+    private long _selecting = 0;
+    protected Instruments (Loop loop) {
+        _loop = loop;
+    }
+    protected final void _selected (long started, int selected) {
+        long now = System.nanoTime();
+        _selecting = now - started;
+        select.add(_selecting / 1000);
+        keys.add(selected);
+        _selected += selected;
+    }
+    protected final void _handled (Dispatcher dispatcher, long started) {
+        long nanos = System.nanoTime() - started;
+        Class type = dispatcher.getClass();
+        Handler handler = _handlers.get(type);
+        if (handler == null) {
+            handler = new Handler();
+            _handlers.put(type, handler);
+        }
+        handler._count++;
+        handler._nanos += nanos;
+        _handled++;
+    }
+    protected final void _io (long started) {
+        _runs++;
+        io.add((System.nanoTime() - started - _selecting) / 1000);
+        _selecting = 0;
+    }
+    protected final void _depths (int scheduled, int defered) {
+        scheduledDepth.add(scheduled);
+        deferedDepth.add(defered);
+    }
+    protected final void _scheduled (long started) {
+        scheduled.add((System.nanoTime() - started) / 1000);
+    }
+    protected final void _defered (long started) {
+        defered.add((System.nanoTime() - started) / 1000);
+    }
+    /**
+     * Register these instruments as a JMX MBean named 
+     * <code>org.async:type=Loop,name=</code><em>name</em>.
+     * 
+     * @param name of the loop instrumented
+     * @throws Exception if the MBean could not be registered
+     */
+    public final void register (String name) throws Exception {
+        ManagementFactory.getPlatformMBeanServer().registerMBean(
+            this, new ObjectName("org.async:type=Loop,name=" + name)
+            );
+    }
+    /**
+     * Publish these instruments to a sink periodically, from their loop.
+     * 
+     * @param sink to publish to
+     * @param period in milliseconds
+     */
+    public final void report (Sink sink, int period) {
+        _loop.timeout(period, new Report(this, sink, period));
+    }
+    public final long getRuns () {
+        return _runs;
+    }
+    public final long getSelected () {
+        return _selected;
+    }
+    public final long getHandled () {
+        return _handled;
+    }
+    public final int getDispatched () {
+        return _loop._dispatchedCount;
+    }
+    public final int getConcurrent () {
+        return _loop._concurrent;
+    }
+    public final int getWaiting () {
+        return _loop._waitingCount;
+    }
+    public final int getScheduled () {
+        return _loop._scheduled.size();
+    }
+    public final int getDefered () {
+        return _loop._defered.size();
+    }
+    public final long getSelectMicros () {
+        return select._sum;
+    }
+    public final long getIoMicros () {
+        return io._sum;
+    }
+    public final long getScheduledMicros () {
+        return scheduled._sum;
+    }
+    public final long getDeferedMicros () {
+        return defered._sum;
+    }
+    public final long getBuffersReserved () {
+        return _loop._buffers.reserved();
+    }
+    public final long getBuffersBorrowed () {
+        return _loop._buffers.borrowedBytes();
+    }
+    public final String getJSON () {
+        return json();
+    }
+    /**
+     * Get a JSON snapshot of these instruments.
+     * 
+     * @return a JSON object string
+     */
+    public final String json () {
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\"runs\": ");
+        sb.append(_runs);
+        sb.append(", \"selected\": ");
+        sb.append(_selected);
+        sb.append(", \"handled\": ");
+        sb.append(_handled);
+        sb.append(", \"dispatched\": ");
+        sb.append(getDispatched());
+        sb.append(", \"concurrent\": ");
+        sb.append(getConcurrent());
+        sb.append(", \"waiting\": ");
+        sb.append(getWaiting());
+        sb.append(", \"scheduled\": ");
+        sb.append(getScheduled());
+        sb.append(", \"defered\": ");
+        sb.append(getDefered());
+        sb.append(", \"micros\": {\"select\": ");
+        select.json(sb);
+        sb.append(", \"io\": ");
+        io.json(sb);
+        sb.append(", \"scheduled\": ");
+        scheduled.json(sb);
+        sb.append(", \"defered\": ");
+        defered.json(sb);
+        sb.append("}, \"keys\": ");
+        keys.json(sb);
+        sb.append(", \"depths\": {\"scheduled\": ");
+        scheduledDepth.json(sb);
+        sb.append(", \"defered\": ");
+        deferedDepth.json(sb);
+        sb.append("}, \"buffers\": ");
+        _loop._buffers.json(sb);
+        sb.append(", \"handlers\": {");
+        Iterator<Map.Entry<Class,Handler>> handlers = 
+            _handlers.entrySet().iterator();
+        Map.Entry<Class,Handler> entry;
+        while (handlers.hasNext()) {
+            entry = handlers.next();
+            sb.append('"');
+            sb.append(entry.getKey().getName());
+            sb.append("\": {\"count\": ");
+            sb.append(entry.getValue()._count);
+            sb.append(", \"micros\": ");
+            sb.append(entry.getValue()._nanos / 1000);
+            sb.append('}');
+            if (handlers.hasNext()) {
+                sb.append(", ");
+            }
+        }
+        sb.append("}}");
+        return sb.toString();
+    }
+}
@@ -0,0 +1,41 @@
+/*  Copyright (C) 2007 Laurent A.V. Szyster
+ *
+ *  This library is free software; you can redistribute it and/or modify
+ *  it under the terms of version 2 of the GNU General Public License as
+ *  published by the Free Software Foundation.
+ *  
+ *   http://www.gnu.org/copyleft/gpl.html
+ *  
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *  
+ *  You should have received a copy of the GNU General Public License
+ *  along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ *  USA
+ *  
+ */
+
+package org.async.core;
+
+/**
+ * The management interface of a loop's <code>Instruments</code>.
+ */
+public interface InstrumentsMBean {
+    public long getRuns ();
+    public long getSelected ();
+    public long getHandled ();
+    public int getDispatched ();
+    public int getConcurrent ();
+    public int getWaiting ();
+    public int getScheduled ();
+    public int getDefered ();
+    public long getSelectMicros ();
+    public long getIoMicros ();
+    public long getScheduledMicros ();
+    public long getDeferedMicros ();
+    public long getBuffersReserved ();
+    public long getBuffersBorrowed ();
+    public String getJSON ();
+}
@@ -26,10 +26,10 @@ import java.nio.channels.ClosedChannelException;
 import java.io.IOException;
 
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.TreeSet;
 import java.util.LinkedList;
 import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import java.lang.Runtime;
 
@@ -37,14 +37,16 @@ import org.simple.Fun;
 
 /**
  * An asynchronous loop around NIO selectable sockets, events scheduled 
- * in time and defered continuations of finalized instances. 
+ * in time and defered continuations of finished calls. 
  * 
  * @p The preferred application is to use a single loop in a single thread,
  * as the static member and methods of <code>Async</code> do.
  * 
  * @p Managing more than one loop is still possible, but then they should all
  * be independant if their application don't want to combine the problems
- * of threads with the complexity asynchrony.
+ * of threads with the complexity asynchrony. A <code>LoopGroup</code> runs 
+ * such independant loops, one per thread, and <code>defer</code> is the 
+ * only method of a loop that may be called from another thread.
  * 
  */
 public final class Loop {
@@ -117,18 +119,78 @@ public final class Loop {
    
     protected long _now;
     protected Selector _selector;
-    protected HashMap<String,Dispatcher> _dispatched = new HashMap();
-    protected TreeSet<Scheduled> _scheduled = new TreeSet();
-    protected LinkedList<Fun> _defered =  new LinkedList();
+    protected SelectedKeys _selectedKeys;
+    /**
+     * A dense table of the dispatchers registered in this loop, indexed by
+     * their <code>_slot</code>.
+     */
+    protected Dispatcher[] _dispatched = new Dispatcher[64];
+    protected int _dispatchedCount = 0;
+    /**
+     * A dense table of the dispatchers which readable and writable status 
+     * is polled at each run of this loop, the default for compatibility,
+     * indexed by their <code>_polledSlot</code>.
+     */
+    protected Dispatcher[] _polled = new Dispatcher[64];
+    protected int _polledCount = 0;
+    /**
+     * The dispatchers which signaled an interest change since the last run,
+     * swapped with <code>_interesting</code> when drained.
+     */
+    protected ArrayList<Dispatcher> _interests = new ArrayList();
+    protected ArrayList<Dispatcher> _interesting = new ArrayList();
+    protected Wheel _scheduled;
+    protected ArrayList<Scheduled> _expired = new ArrayList();
+    /**
+     * The functions defered by any thread, with an overflow list for the
+     * rare case where the mailbox is full.
+     */
+    protected Mailbox<Fun> _defered = new Mailbox(4096);
+    protected LinkedList<Fun> _overflow = new LinkedList();
+    protected volatile boolean _overflowed = false;
+    /**
+     * Set by the first thread that wakes up this loop's selector, reset 
+     * by the loop before it applies the functions defered.
+     */
+    protected AtomicBoolean _waking = new AtomicBoolean(false);
+    /**
+     * The thread dispatching this loop, or <code>null</code>.
+     */
+    protected volatile Thread _thread = null;
     
     protected Loginfo _log = _stdoe;
     protected int _precision = 100;
     /**
-     * The number of readable or writable dispatchers in the last run of
-     * this loop. 
+     * Set to <code>true</code> for loops that keep dispatching when they
+     * have nothing to do, until an <code>Exit</code> is throwed.
+     */
+    protected boolean _persistent = false;
+    /**
+     * The number of readable or writable dispatchers registered in this 
+     * loop's selector. 
      */
     protected int _concurrent = 0;
     protected int _concurrency = 512;
+    /**
+     * The dispatchers waiting for admission in this loop's selector, first
+     * in first out, and the cursor of the sweep that releases the admitted 
+     * ones idle while others wait.
+     */
+    protected Dispatcher[] _waiting = new Dispatcher[64];
+    protected int _waitingHead = 0;
+    protected int _waitingCount = 0;
+    protected int _sweep = 0;
+    protected long _admissions = 0;
+    protected long _admissionWait = 0;
+    protected long _admissionWaitMax = 0;
+    /**
+     * This loop's instruments, <code>null</code> when disabled.
+     */
+    protected Instruments _instruments = null;
+    /**
+     * The pool of direct buffers borrowed by this loop's pipelines.
+     */
+    protected BufferPool _buffers = new BufferPool();
     /**
      * The list of <code>Fun</code> applied when an <code>Exit</code> 
      * exception was throwed in the loop.
@@ -143,6 +205,7 @@ public final class Loop {
      */
     public Loop () {
         _now = System.currentTimeMillis();
+        _scheduled = new Wheel(4096, _now);
     }
     /**
      * Hook this loop's exit to the JVM shutdown procedure and enable a
@@ -239,17 +302,83 @@ public final class Loop {
      * concurrently in this loop's selector. By default it is set to 512, 
      * a common limit set by some OS on the number of file descriptors passed 
      * to the <code>select</code> call.
+     * 
+     * @p Beyond that limit, dispatchers wait their turn in a queue. While 
+     * some wait, each admitted dispatcher yields its place after an I/O 
+     * event and the ones idle for longer than the loop's precision are 
+     * released, so that none is starved.
      */
     public final int concurrency () {
         return _concurrency;
     }
+    /**
+     * Enable this loop's instruments if they are not, from the thread
+     * dispatching this loop or before it does.
+     * 
+     * @return the instruments of this loop
+     */
+    public final Instruments instrument () {
+        if (_instruments == null) {
+            _instruments = new Instruments(this);
+        }
+        return _instruments;
+    }
+    /**
+     * Get the pool of direct buffers borrowed by this loop's pipelines, 
+     * from the thread dispatching this loop.
+     * 
+     * @return the buffer pool of this loop
+     */
+    public final BufferPool buffers () {
+        return _buffers;
+    }
+    /**
+     * Get this loop's instruments.
+     * 
+     * @return the instruments or <code>null</code> if they are disabled
+     */
+    public final Instruments instruments () {
+        return _instruments;
+    }
+    /**
+     * Get the number of dispatchers waiting for admission in this loop.
+     * 
+     * @return the length of the admission queue
+     */
+    public final int waiting () {
+        return _waitingCount;
+    }
+    /**
+     * Get the number of dispatchers admitted after waiting.
+     * 
+     * @return the count of admissions from the queue
+     */
+    public final long admissions () {
+        return _admissions;
+    }
+    /**
+     * Get the total time dispatchers waited for admission.
+     * 
+     * @return the sum of admission waits in milliseconds
+     */
+    public final long admissionWait () {
+        return _admissionWait;
+    }
+    /**
+     * Get the longest time a dispatcher waited for admission.
+     * 
+     * @return the maximum admission wait in milliseconds
+     */
+    public final long admissionWaitMax () {
+        return _admissionWaitMax;
+    }
     /**
      * Get this loop's precision in milliseconds, set by default to 100ms
      * 
-     * @p It is used by the loop to sleep that much whenever there are no
-     * dispatchers to select, keeping the loop from exhausting the CPU when 
-     * there are no I/O to handle. Practically, it also defines the best
-     * precision possible for scheduled events when there are no I/O. 
+     * @p It is the longest the loop waits for I/O or sleeps when there are 
+     * no dispatchers to select. The loop waits less when an event is 
+     * scheduled sooner, and not at all when functions were defered, so 
+     * that scheduled events fire within a millisecond of their time.
      * 
      * @return the precision of the loop in milliseconds
      */
@@ -257,11 +386,22 @@ public final class Loop {
         return _precision;
     }
     /**
-     * Get the <code>TreeSet</code> of <code>Scheduled</code> events in time.
+     * Get the number of dispatchers registered in this loop.
      * 
-     * @return an ordered set of scheduled events in time.
+     * @return the number of dispatchers registered
+     * 
+     * @p Note that this is only an approximation when read from another 
+     * thread than the one dispatching this loop.
      */
-    public final TreeSet scheduled () {
+    public final int dispatched () {
+        return _dispatchedCount;
+    }
+    /**
+     * Get the <code>Wheel</code> of <code>Scheduled</code> events in time.
+     * 
+     * @return the timing wheel of this loop
+     */
+    public final Wheel scheduled () {
         return _scheduled;
     }
     /**
@@ -269,9 +409,12 @@ public final class Loop {
      * 
      * @param when in milliseconds
      * @param function to apply
+     * @return the <code>Scheduled</code> event, a handle to cancel it
      */
-    public final void schedule (long when, Fun function) {
-        _scheduled.add(new Scheduled._Function(when, function));
+    public final Scheduled schedule (long when, Fun function) {
+        Scheduled event = new Scheduled._Function(when, function);
+        _scheduled.add(event);
+        return event;
     }
     /**
      * Schedule a function's application at an approximate time from now.
@@ -288,122 +431,454 @@ public final class Loop {
      * 
      * @param milliseconds to wait
      * @param function to apply
+     * @return the <code>Scheduled</code> event, a handle to cancel it
      */
-    public final void timeout (int milliseconds, Fun function) {
-        _scheduled.add(new Scheduled._Function(_now + milliseconds, function));
+    public final Scheduled timeout (int milliseconds, Fun function) {
+        Scheduled event = new Scheduled._Function(
+            _now + milliseconds, function
+            );
+        _scheduled.add(event);
+        return event;
     }
+    /**
+     * Cancel a scheduled event.
+     * 
+     * @param event to cancel
+     * @return true if the event was scheduled in this loop and cancelled
+     */
+    public final boolean cancel (Scheduled event) {
+        return _scheduled.remove(event);
+    }
+    /**
+     * Defer a function's application to the next run of this loop, waking
+     * up its selector.
+     * 
+     * @param function to apply
+     * 
+     * @p This method is thread-safe, it is the one to use by other threads
+     * to hand over results or channels to this loop. It does not lock 
+     * unless the mailbox is full and the selector is woken up at most 
+     * once per run, not for functions defered by the loop's own thread.
+     */
     public final void defer (Fun function) {
-    	_defered.add(function);
+        if (!_defered.offer(function)) {
+            synchronized (_overflow) {
+                _overflow.add(function);
+                _overflowed = true;
+            }
+        }
+        if (
+            Thread.currentThread() != _thread && 
+            !_waking.getAndSet(true)
+            ) {
+            Selector selector = _selector;
+            if (selector != null) {
+                selector.wakeup();
+            }
+        }
     }
-    private static final void _sleep (int milliseconds) throws Exit {
-        System.gc();
+    private final void _sleep (int milliseconds) throws Exit {
         try {
-            Thread.sleep(milliseconds);
-            return;
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
+            _selector.select(milliseconds);
+        } catch (IOException e) {
+            _log.traceback(e);
+        }
+        if (Thread.currentThread().isInterrupted()) {
             throw new Exit("InterruptedException");
         }
     }
-    private final void _dispatch_io () throws Exit {
-        // register, set interest or cancel selection keys for all dispatchers.
-        _concurrent = 0;
-        int ops;
+    private static final Dispatcher[] _grow (Dispatcher[] table) {
+        Dispatcher[] grown = new Dispatcher[table.length * 2];
+        System.arraycopy(table, 0, grown, 0, table.length);
+        return grown;
+    }
+    /**
+     * Add a dispatcher to this loop's table, and to the polled ones if it
+     * does not signal its interest explicitely.
+     */
+    protected final void _add (Dispatcher dispatcher) {
+        if (dispatcher._slot > -1) {
+            return; // already registered
+        }
+        if (_dispatchedCount == _dispatched.length) {
+            _dispatched = _grow(_dispatched);
+        }
+        dispatcher._slot = _dispatchedCount;
+        _dispatched[_dispatchedCount++] = dispatcher;
+        if (dispatcher._explicit) {
+            dispatcher.interest();
+        } else {
+            if (_polledCount == _polled.length) {
+                _polled = _grow(_polled);
+            }
+            dispatcher._polledSlot = _polledCount;
+            _polled[_polledCount++] = dispatcher;
+        }
+    }
+    /**
+     * Remove a dispatcher from this loop's tables, moving the last ones in
+     * its slots.
+     */
+    protected final void _remove (Dispatcher dispatcher) {
+        int slot = dispatcher._slot;
+        if (slot < 0) {
+            return;
+        }
+        Dispatcher last = _dispatched[--_dispatchedCount];
+        _dispatched[slot] = last;
+        last._slot = slot;
+        _dispatched[_dispatchedCount] = null;
+        dispatcher._slot = -1;
+        slot = dispatcher._polledSlot;
+        if (slot > -1) {
+            last = _polled[--_polledCount];
+            _polled[slot] = last;
+            last._polledSlot = slot;
+            _polled[_polledCount] = null;
+            dispatcher._polledSlot = -1;
+        }
+        if (dispatcher._ops > 0) {
+            _release(dispatcher);
+            dispatcher._ops = 0;
+        }
+        dispatcher._waiting = -1;
+    }
+    private static final int _interest (Dispatcher dispatcher) {
+        return (
+            (dispatcher.writable() ? dispatcher._writable : 0) + 
+            (dispatcher.readable() ? dispatcher._readable : 0)
+            );
+    }
+    private final void _release (Dispatcher dispatcher) {
+        _concurrent--;
+        if (dispatcher._quota != null) {
+            dispatcher._quota._release();
+        }
+    }
+    /**
+     * Queue a dispatcher for admission, unless it is already waiting.
+     */
+    private final void _wait (Dispatcher dispatcher) {
+        if (dispatcher._waiting > -1) {
+            return;
+        }
+        dispatcher._waiting = _now;
+        int size = _waiting.length;
+        if (_waitingCount == size) {
+            Dispatcher[] grown = new Dispatcher[size * 2];
+            for (int i = 0; i < size; i++) {
+                grown[i] = _waiting[(_waitingHead + i) & (size - 1)];
+            }
+            _waiting = grown;
+            _waitingHead = 0;
+            size = size * 2;
+        }
+        _waiting[(_waitingHead + _waitingCount) & (size - 1)] = dispatcher;
+        _waitingCount++;
+    }
+    /**
+     * Release an admitted dispatcher and queue it for admission, unless it
+     * listens: accepting channels must not wait behind them.
+     */
+    private final void _yield (Dispatcher dispatcher) {
+        if (
+            dispatcher._ops > 0 && dispatcher._channel != null &&
+            dispatcher._readable != SelectionKey.OP_ACCEPT
+            ) {
+            _release(dispatcher);
+            _select(dispatcher, 0);
+            _wait(dispatcher);
+        }
+    }
+    /**
+     * Release the admitted dispatchers idle for more than this loop's
+     * precision, at most as many as wait, then admit the ones waiting 
+     * in their order until this loop's concurrency is reached.
+     */
+    private final void _admit () {
         Dispatcher dispatcher;
-        Iterator<Dispatcher> dispatchers = _dispatched.values().iterator();
-        while (dispatchers.hasNext() && _concurrent < _concurrency) {
-            dispatcher = dispatchers.next();
-            ops = (
-                (dispatcher.writable() ? dispatcher._writable : 0) + 
-                (dispatcher.readable() ? dispatcher._readable : 0)
-                );
-            if (ops > 0) {
+        int turns = Math.min(_waitingCount, _dispatchedCount);
+        long idle = _now - _precision;
+        while (turns-- > 0) {
+            if (_sweep >= _dispatchedCount) {
+                _sweep = 0;
+            }
+            dispatcher = _dispatched[_sweep++];
+            if (dispatcher._ops > 0 && dispatcher._admitted < idle) {
+                _yield(dispatcher);
+            }
+        }
+        int ops, mask;
+        long since, wait;
+        turns = _waitingCount;
+        while (turns-- > 0 && _concurrent < _concurrency) {
+            mask = _waiting.length - 1;
+            dispatcher = _waiting[_waitingHead];
+            _waiting[_waitingHead] = null;
+            _waitingHead = (_waitingHead + 1) & mask;
+            _waitingCount--;
+            since = dispatcher._waiting;
+            if (since < 0) {
+                continue; // removed
+            }
+            dispatcher._waiting = -1;
+            if (dispatcher._channel == null) {
+                continue;
+            }
+            ops = _interest(dispatcher);
+            if (ops == 0 || dispatcher._ops > 0) {
+                continue; // not interested anymore
+            }
+            if (dispatcher._quota != null && !dispatcher._quota._admit()) {
+                _wait(dispatcher); // over quota, back in the queue
+                dispatcher._waiting = since;
+                continue;
+            }
+            _concurrent++;
+            dispatcher._admitted = _now;
+            wait = _now - since;
+            _admissions++;
+            _admissionWait += wait;
+            if (wait > _admissionWaitMax) {
+                _admissionWaitMax = wait;
+            }
+            _select(dispatcher, ops);
+        }
+    }
+    private final void _register (Dispatcher dispatcher) {
+        int ops = _interest(dispatcher);
+        if (ops == dispatcher._ops && dispatcher._key != null) {
+            return;
+        }
+        if (dispatcher._ops == 0 && ops > 0) {
+            Quota quota = dispatcher._quota;
+            if (dispatcher._readable != SelectionKey.OP_ACCEPT && (
+                _waitingCount > 0 || _concurrent >= _concurrency ||
+                (quota != null && !quota._admit())
+                )) { 
+                _wait(dispatcher); // take a turn
+                return;
+            } else {
                 _concurrent++;
+                dispatcher._admitted = _now;
             }
-            try {
-                if (dispatcher._key == null) {
-                    dispatcher._key = dispatcher._channel.register(
-                        _selector, ops, dispatcher
-                        );
-                } else if (ops != dispatcher._key.interestOps()) {
-                	/*
-                    if (ops > 0) {
-                        dispatcher._key.interestOps(ops);
-                    } else {
-                        dispatcher._key.cancel();
-                        dispatcher._key = null;
-                    }
-                    */
-                	dispatcher._key.interestOps(ops);
-                }
-            } catch (ClosedChannelException e) {
-                dispatcher.handleError(e);
+        } else if (dispatcher._ops > 0 && ops == 0) {
+            _release(dispatcher);
+        }
+        _select(dispatcher, ops);
+    }
+    private final void _select (Dispatcher dispatcher, int ops) {
+        try {
+            if (dispatcher._key == null) {
+                dispatcher._key = dispatcher._channel.register(
+                    _selector, ops, dispatcher
+                    );
+            } else {
+                dispatcher._key.interestOps(ops);
+            }
+            dispatcher._ops = ops;
+        } catch (ClosedChannelException e) {
+            if (dispatcher._ops == 0 && ops > 0) {
+                _release(dispatcher); // admitted but never selected
+            }
+            dispatcher.handleError(e);
+        }
+    }
+    private final void _dispatch_io () throws Exit {
+        // admit the dispatchers waiting their turn, then set interest for
+        // all polled dispatchers, backward because errors may remove them 
+        // from the table ...
+        Dispatcher dispatcher;
+        if (_waitingCount > 0) {
+            _admit();
+        }
+        for (int i = _polledCount - 1; i > -1; i--) {
+            dispatcher = _polled[i];
+            if (dispatcher != null) {
+                _register(dispatcher);
             }
         }
+        // ... and for the ones that signaled an interest change.
+        ArrayList<Dispatcher> interests = _interests;
+        _interests = _interesting;
+        _interesting = interests;
+        for (int i=0, L=interests.size(); i < L; i++) {
+            dispatcher = interests.get(i);
+            dispatcher._interest = false;
+            if (dispatcher._channel != null) {
+                _register(dispatcher);
+            }
+        }
+        interests.clear();
+        // do not block if functions were defered (another thread's wake up
+        // may have been sent before this loop's selector was opened), nor
+        // longer than the next scheduled event.
+        int timeout = _precision;
+        if (_waking.get() || _overflowed || !_defered.isEmpty()) {
+            timeout = 0;
+        } else if (!_scheduled.isEmpty()) {
+            _now = System.currentTimeMillis();
+            timeout = _scheduled.timeout(_now, _precision);
+        }
+        Instruments instruments = _instruments;
+        long selecting = (instruments == null) ? 0: System.nanoTime();
         if (_concurrent == 0) {
-            _sleep(_precision);
+            if (timeout > 0) {
+                _sleep(timeout);
+            }
             _now = System.currentTimeMillis();
+            if (instruments != null) {
+                instruments._selected(selecting, 0);
+            }
             return;
         } else {
             try {
-                _selector.select(_precision);
+                if (timeout > 0) {
+                    _selector.select(timeout);
+                } else {
+                    _selector.selectNow();
+                }
             } catch (IOException e) {
                 _log.traceback(e);
             }
             _now = System.currentTimeMillis();
         }
-        // handle connect, write, accept and read events
-        _now = System.currentTimeMillis();
-        Iterator it = _selector.selectedKeys().iterator();
-        while (it.hasNext()) {
-            ((Dispatcher)((SelectionKey) it.next()).attachment())._handle();
+        // handle connect, write, accept and read events, once: an exit
+        // drops the keys left, select will report them again if ready.
+        SelectedKeys selected = _selectedKeys;
+        if (selected != null) {
+            SelectionKey[] keys = selected._keys;
+            if (instruments != null) {
+                instruments._selected(selecting, selected._size);
+            }
+            try {
+                for (int i = 0, L = selected._size; i < L; i++) {
+                    dispatcher = (Dispatcher) keys[i].attachment();
+                    keys[i] = null;
+                    if (dispatcher != null) {
+                        _handle(dispatcher, instruments);
+                    }
+                }
+            } finally {
+                selected.clear();
+            }
+        } else {
+            Set<SelectionKey> keys = _selector.selectedKeys();
+            if (instruments != null) {
+                instruments._selected(selecting, keys.size());
+            }
+            try {
+                Iterator<SelectionKey> it = keys.iterator();
+                while (it.hasNext()) {
+                    dispatcher = (Dispatcher) it.next().attachment();
+                    if (dispatcher != null) {
+                        _handle(dispatcher, instruments);
+                    }
+                }
+            } finally {
+                keys.clear();
+            }
         }
     }
+    private final void _handle (Dispatcher dispatcher, Instruments instruments) 
+    throws Exit {
+        if (instruments == null) {
+            dispatcher._handle();
+        } else {
+            long handling = System.nanoTime();
+            dispatcher._handle();
+            instruments._handled(dispatcher, handling);
+        }
+        dispatcher.interest();
+        if (_waitingCount > 0 && _contended()) {
+            _yield(dispatcher);
+        }
+    }
+    /**
+     * Find out wether the dispatcher first in line waits for a turn that
+     * only this loop's concurrency keeps it from, not its quota.
+     */
+    private final boolean _contended () {
+        if (_concurrent < _concurrency) {
+            return false; // admitted in the next run
+        }
+        Quota quota = _waiting[_waitingHead]._quota;
+        return (quota == null || quota._available());
+    }
     private final void _dispatch_scheduled() throws Exit {
         long recurr;
-        Scheduled event = _scheduled.first();
-        while (event.when <= _now) {
-            _scheduled.remove(event);
-            try {
-                recurr = event.apply(this);
+        Scheduled event;
+        ArrayList<Scheduled> expired = _expired;
+        _scheduled.expire(_now, expired);
+        int i = 0, L = expired.size();
+        try {
+            for (; i < L; i++) {
+                event = expired.get(i);
+                if (event._slot != Wheel.DUE) {
+                    continue; // cancelled or rescheduled 
+                }
+                event._slot = -1;
+                event._wheel = null;
+                recurr = -1;
+                try {
+                    recurr = event.apply(this);
+                } catch (Exit e) {
+                    throw e;
+                } catch (Throwable e) {
+                    _log.traceback(e);
+                }
                 if (recurr > _now) { // recurr in the future!
                     event.when = recurr;
                     _scheduled.add(event);
-                } 
-            } catch (Exit e) {
-                throw e;
-            } catch (Throwable e) {
-                _log.traceback(e);
+                } else {
+                    event.finish();
+                }
             }
-            if (_scheduled.isEmpty()) {
-                break;
+        } finally {
+            for (i++; i < L; i++) { // reschedule what an exit left due
+                event = expired.get(i);
+                if (event._slot == Wheel.DUE) {
+                    event._wheel = null;
+                    _scheduled.add(event);
+                }
             }
-            event = _scheduled.first();
+            expired.clear();
         }
     }
     private final void _dispatch_defered () throws Exit {
-        synchronized(_defered) {
-            while (!_defered.isEmpty()) {
-                try {
-                    _defered.removeFirst().apply(_defered);
-                } catch (Exit e) {
-                    throw e;
-                } catch (Throwable e) {
-                    _log.traceback(e);
+        Fun function;
+        _waking.set(false);
+        while (true) {
+            function = _defered.poll();
+            if (function == null) {
+                if (!_overflowed) {
+                    return;
                 }
+                synchronized (_overflow) {
+                    function = _overflow.poll();
+                    _overflowed = !_overflow.isEmpty();
+                }
+                if (function == null) {
+                    return;
+                }
+            }
+            try {
+                function.apply(this);
+            } catch (Exit e) {
+                throw e;
+            } catch (Throwable e) {
+                _log.traceback(e);
+            }
+            if (function instanceof Call) {
+                ((Call) function).finish();
             }
         }
     }
     private final boolean _notEmpty () {
-        if (!_dispatched.isEmpty()) {
+        if (_dispatchedCount > 0 || _persistent) {
             return true;
         } else if (_scheduled.isEmpty()) {
-        	System.gc();
-            System.runFinalization();
-            return !(_defered.isEmpty());
-        } else if (_scheduled.first().when > _now) {
-        	System.gc();
-            System.runFinalization();
+            return !(_defered.isEmpty() && !_overflowed);
         }
         return true;
     }
@@ -416,17 +891,50 @@ public final class Loop {
     public final void dispatch () throws Throwable {
         if (_selector == null) {
             _selector = Selector.open();
+            _selectedKeys = SelectedKeys.install(_selector);
+        }
+        Loop current = Static._current.get();
+        Static._current.set(this);
+        _thread = Thread.currentThread();
+        try {
+            _dispatch();
+        } finally {
+            _thread = null;
+            Static._current.set(current);
         }
+    }
+    private final void _dispatch () throws Throwable {
+        Instruments instruments;
+        long started;
         while (_notEmpty()) {
             try {
-                _dispatch_io();
-                if (_hook != null && _hook.get()) {
-                    throw new Loop.Exit("SIGINT");
-                }
-                if (!_scheduled.isEmpty()) {
-                    _dispatch_scheduled ();
+                instruments = _instruments;
+                if (instruments == null) {
+                    _dispatch_io();
+                    if (_hook != null && _hook.get()) {
+                        throw new Loop.Exit("SIGINT");
+                    }
+                    if (!_scheduled.isEmpty()) {
+                        _dispatch_scheduled ();
+                    }
+                    _dispatch_defered ();
+                } else {
+                    started = System.nanoTime();
+                    _dispatch_io();
+                    instruments._io(started);
+                    instruments._depths(_scheduled.size(), _defered.size());
+                    if (_hook != null && _hook.get()) {
+                        throw new Loop.Exit("SIGINT");
+                    }
+                    if (!_scheduled.isEmpty()) {
+                        started = System.nanoTime();
+                        _dispatch_scheduled ();
+                        instruments._scheduled(started);
+                    }
+                    started = System.nanoTime();
+                    _dispatch_defered ();
+                    instruments._defered(started);
                 }
-                _dispatch_defered ();
             } catch (Exit e) {
                 Fun fun; 
                 Iterator exit = exits.iterator();
@@ -446,10 +954,11 @@ public final class Loop {
                 }
             }
         }
-        if (_dispatched.isEmpty()) try {
+        if (_dispatchedCount == 0) try {
             _selector.close();
         } finally {
             _selector = null;
+            _selectedKeys = null;
         }
         if (_hook != null) {
             synchronized (_hook) {
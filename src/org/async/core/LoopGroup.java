@@ -0,0 +1,170 @@
+/*  Copyright (C) 2007 Laurent A.V. Szyster
+ *
+ *  This library is free software; you can redistribute it and/or modify
+ *  it under the terms of version 2 of the GNU General Public License as
+ *  published by the Free Software Foundation.
+ *  
+ *   http://www.gnu.org/copyleft/gpl.html
+ *  
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *  
+ *  You should have received a copy of the GNU General Public License
+ *  along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ *  USA
+ *  
+ */
+
+package org.async.core;
+
+import org.simple.Fun;
+
+/**
+ * A group of independant loops, each dispatched by its own thread, to which 
+ * a <code>Server</code> can distribute the channels it accepts.
+ * 
+ * @h3 Synopsis
+ * 
+ * @pre LoopGroup workers = new LoopGroup(4, LoopGroup.LEAST_LOADED);
+ *workers.start();
+ *HttpServer server = new HttpServer(".");
+ *server.serverDistribute(workers);
+ *server.httpListen("127.0.0.2:8765");
+ *Static.loop.dispatch();
+ *workers.stop();
+ * 
+ * @p The loops of a group are persistent, they keep dispatching when they
+ * have nothing to do until the group is stopped. Their threads do not 
+ * share anything but what is handed over with <code>Loop.defer</code>.
+ */
+public final class LoopGroup {
+    /**
+     * Distribute to each loop in turn.
+     */
+    public static final int ROUND_ROBIN = 0;
+    /**
+     * Distribute to the loop with the fewest registered dispatchers.
+     */
+    public static final int LEAST_LOADED = 1;
+    protected static final class Stop implements Fun {
+        public final Object apply (Object input) throws Throwable {
+            throw new Loop.Exit("stop");
+        }
+    }
+    protected static final class Worker extends Thread {
+        private Loop _loop;
+        public Worker (Loop loop, String name) {
+            super(name);
+            _loop = loop;
+        }
+        public final void run () {
+            try {
+                _loop.dispatch();
+            } catch (Throwable e) {
+                _loop.log(e);
+            }
+        }
+    }
+    protected Loop[] _loops;
+    protected Worker[] _workers;
+    protected int _policy;
+    protected int _next = 0;
+    /**
+     * Create a group of loops distributing channels round-robin.
+     * 
+     * @param size of the group
+     */
+    public LoopGroup (int size) {
+        this(size, ROUND_ROBIN);
+    }
+    /**
+     * Create a group of loops with a given distribution policy.
+     * 
+     * @param size of the group
+     * @param policy of distribution, <code>ROUND_ROBIN</code> or 
+     *        <code>LEAST_LOADED</code>
+     */
+    public LoopGroup (int size, int policy) {
+        if (size < 1) {
+            throw new Error("LoopGroup size lower than 1");
+        }
+        _policy = policy;
+        _loops = new Loop[size];
+        _workers = new Worker[size];
+        for (int i = 0; i < size; i++) {
+            _loops[i] = new Loop();
+            _loops[i]._persistent = true;
+            _workers[i] = new Worker(_loops[i], "LoopGroup-" + i);
+        }
+    }
+    /**
+     * Get the number of loops in this group.
+     * 
+     * @return the size of this group
+     */
+    public final int size () {
+        return _loops.length;
+    }
+    /**
+     * Get one of this group's loops.
+     * 
+     * @param index of the loop
+     * @return a <code>Loop</code>
+     */
+    public final Loop loop (int index) {
+        return _loops[index];
+    }
+    /**
+     * Select the next loop to which a channel should be distributed.
+     * 
+     * @return a <code>Loop</code> of this group
+     * 
+     * @p This method is expected to be called by the thread dispatching the 
+     * accepting loop only.
+     */
+    public final Loop next () {
+        if (_policy == LEAST_LOADED) {
+            Loop least = _loops[0];
+            for (int i = 1; i < _loops.length; i++) {
+                if (_loops[i]._dispatchedCount < least._dispatchedCount) {
+                    least = _loops[i];
+                }
+            }
+            return least;
+        } else {
+            Loop next = _loops[_next];
+            _next = (_next + 1) % _loops.length;
+            return next;
+        }
+    }
+    /**
+     * Start the threads dispatching this group's loops.
+     */
+    public final void start () {
+        for (int i = 0; i < _workers.length; i++) {
+            _workers[i].start();
+        }
+    }
+    /**
+     * Throw an <code>Exit</code> in each loop of this group, stopping the
+     * threads that dispatch them.
+     */
+    public final void stop () {
+        Stop stop = new Stop();
+        for (int i = 0; i < _loops.length; i++) {
+            _loops[i].defer(stop);
+        }
+    }
+    /**
+     * Wait for all threads of this group to stop.
+     * 
+     * @throws InterruptedException
+     */
+    public final void join () throws InterruptedException {
+        for (int i = 0; i < _workers.length; i++) {
+            _workers[i].join();
+        }
+    }
+}
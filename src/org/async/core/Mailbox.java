@@ -0,0 +1,114 @@
+/*  Copyright (C) 2007 Laurent A.V. Szyster
+ *
+ *  This library is free software; you can redistribute it and/or modify
+ *  it under the terms of version 2 of the GNU General Public License as
+ *  published by the Free Software Foundation.
+ *  
+ *   http://www.gnu.org/copyleft/gpl.html
+ *  
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *  
+ *  You should have received a copy of the GNU General Public License
+ *  along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ *  USA
+ *  
+ */
+
+package org.async.core;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A bounded queue of many producers and a single consumer, without locks
+ * and without allocation once created.
+ * 
+ * @p Items are stored in a ring of slots, each slot with a sequence number
+ * that tells the producers when it is free and the consumer when it is 
+ * filled. Producers compete for the next slot with a compare and set of 
+ * the tail, the consumer owns the head.
+ * 
+ * @p Only one thread at a time may <code>poll</code> a mailbox or ask if 
+ * it <code>isEmpty</code>, any thread may <code>offer</code> an item.
+ */
+public final class Mailbox<T> {
+    private final Object[] _items;
+    private final AtomicLongArray _sequences;
+    private final int _mask;
+    private final AtomicLong _tail = new AtomicLong(0);
+    private long _head = 0;
+    /**
+     * Create a mailbox of a given capacity, rounded up to the next power 
+     * of two.
+     * 
+     * @param capacity of the mailbox
+     */
+    public Mailbox (int capacity) {
+        int size = 1;
+        while (size < capacity) {
+            size = size << 1;
+        }
+        _items = new Object[size];
+        _sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            _sequences.set(i, i);
+        }
+        _mask = size - 1;
+    }
+    /**
+     * Try to add an item at the tail of this mailbox.
+     * 
+     * @param item to add
+     * @return <code>false</code> if the mailbox is full
+     */
+    public final boolean offer (T item) {
+        long tail, sequence;
+        int slot;
+        while (true) {
+            tail = _tail.get();
+            slot = (int) (tail & _mask);
+            sequence = _sequences.get(slot);
+            if (sequence == tail) {
+                if (_tail.compareAndSet(tail, tail + 1)) {
+                    break;
+                }
+            } else if (sequence < tail) {
+                return false; // not yet polled, full
+            } // else another producer took the slot, retry
+        }
+        _items[slot] = item;
+        _sequences.set(slot, tail + 1); // publish
+        return true;
+    }
+    /**
+     * Remove the item at the head of this mailbox.
+     * 
+     * @return the item removed or <code>null</code> if the mailbox is empty
+     */
+    public final T poll () {
+        int slot = (int) (_head & _mask);
+        if (_sequences.get(slot) != _head + 1) {
+            return null; // empty or not yet published
+        }
+        Object item = _items[slot];
+        _items[slot] = null;
+        _sequences.set(slot, _head + _mask + 1); // free for the next turn
+        _head++;
+        return (T) item;
+    }
+    /**
+     * Get the number of items in this mailbox, an estimate when not asked 
+     * by the consumer.
+     * 
+     * @return the number of items offered and not yet polled
+     */
+    public final int size () {
+        return (int) Math.max(_tail.get() - _head, 0);
+    }
+    public final boolean isEmpty () {
+        return _sequences.get((int) (_head & _mask)) != _head + 1;
+    }
+}
@@ -0,0 +1,140 @@
+/*  Copyright (C) 2007 Laurent A.V. Szyster
+ *
+ *  This library is free software; you can redistribute it and/or modify
+ *  it under the terms of version 2 of the GNU General Public License as
+ *  published by the Free Software Foundation.
+ *  
+ *   http://www.gnu.org/copyleft/gpl.html
+ *  
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *  
+ *  You should have received a copy of the GNU General Public License
+ *  along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ *  USA
+ *  
+ */
+
+package org.async.core;
+
+import java.nio.ByteBuffer;
+
+/**
+ * An array-backed ring of the output segments queued by a pipeline: 
+ * buffers, objects producing them and close markers.
+ * 
+ * @p The kind of each segment is kept beside it, so that a pipeline 
+ * switches on an <code>int</code> instead of testing the class of each 
+ * item, and queuing allocates nothing once the ring has grown to the 
+ * pipeline's working size.
+ * 
+ * @p A queue is not thread-safe, like the pipeline that owns it.
+ */
+public final class OutputQueue {
+    /**
+     * A <code>ByteBuffer</code> to send.
+     */
+    public static final int BUFFER = 0;
+    /**
+     * An object producing buffers, for instance a chat 
+     * <code>Producer</code>.
+     */
+    public static final int OBJECT = 1;
+    /**
+     * A marker to close the pipeline when all previous segments are sent.
+     */
+    public static final int CLOSE = 2;
+    protected Object[] _items;
+    protected byte[] _kinds;
+    protected int _head = 0;
+    protected int _size = 0;
+    public OutputQueue () {
+        this(8);
+    }
+    /**
+     * Create a queue of a given initial capacity, rounded up to a power 
+     * of two.
+     * 
+     * @param capacity in segments
+     */
+    public OutputQueue (int capacity) {
+        int n = 1;
+        while (n < capacity) {
+            n = n << 1;
+        }
+        _items = new Object[n];
+        _kinds = new byte[n];
+    }
+    public final boolean isEmpty () {
+        return _size == 0;
+    }
+    public final int size () {
+        return _size;
+    }
+    public final void addBuffer (ByteBuffer buffer) {
+        _add(BUFFER, buffer);
+    }
+    public final void addObject (Object object) {
+        _add(OBJECT, object);
+    }
+    public final void addClose () {
+        _add(CLOSE, null);
+    }
+    /**
+     * Get the kind of the first segment queued.
+     * 
+     * @return <code>BUFFER</code>, <code>OBJECT</code> or <code>CLOSE</code>
+     * @throws Error if the queue is empty
+     */
+    public final int kind () {
+        if (_size == 0) {
+            throw new Error("empty output queue");
+        }
+        return _kinds[_head];
+    }
+    /**
+     * @return the first segment queued, <code>null</code> for a close 
+     * marker or if the queue is empty
+     */
+    public final Object peek () {
+        return _items[_head];
+    }
+    /**
+     * Remove the first segment queued and return it.
+     * 
+     * @return the segment removed, <code>null</code> for a close marker
+     * @throws Error if the queue is empty
+     */
+    public final Object removeFirst () {
+        if (_size == 0) {
+            throw new Error("empty output queue");
+        }
+        Object item = _items[_head];
+        _items[_head] = null;
+        _head = (_head + 1) & (_items.length - 1);
+        _size--;
+        return item;
+    }
+    protected final void _add (int kind, Object item) {
+        int capacity = _items.length;
+        if (_size == capacity) {
+            Object[] items = new Object[capacity * 2];
+            byte[] kinds = new byte[capacity * 2];
+            int first = capacity - _head;
+            System.arraycopy(_items, _head, items, 0, first);
+            System.arraycopy(_items, 0, items, first, _head);
+            System.arraycopy(_kinds, _head, kinds, 0, first);
+            System.arraycopy(_kinds, 0, kinds, first, _head);
+            _items = items;
+            _kinds = kinds;
+            _head = 0;
+            capacity = capacity * 2;
+        }
+        int tail = (_head + _size) & (capacity - 1);
+        _items[tail] = item;
+        _kinds[tail] = (byte) kind;
+        _size++;
+    }
+}
@@ -19,99 +19,292 @@
 
 package org.async.core;
 
-import java.util.LinkedList;
-import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
 
-
+/**
+ * A dispatcher with an input buffer and a queue of output, that writes 
+ * as many queued buffers as it can with a single gathering write.
+ * 
+ * @p Queued buffers are staged in order, up to <code>GATHER</code> of
+ * them or about the output size in bytes, then written at once with
+ * <code>sendv</code> and without copying them. A buffer partially
+ * written stays staged first, its position tracking what has been sent.
+ * A <code>FileRegion</code> set by <code>produce</code> is transferred 
+ * from the file to the socket once the buffers staged before it are sent.
+ * 
+ * @p The input buffer is borrowed from the loop's <code>BufferPool</code>
+ * when a read event is handled and returned as soon as all its bytes have 
+ * been collected, so that idle pipelines hold no buffer.
+ * 
+ * @p The bytes queued and not sent yet are counted against a high and a 
+ * low watermark. Above the high one the pipeline is saturated: it stops 
+ * reading and <code>handleBackpressure</code> is called, so that producers 
+ * can drop, coalesce or pause their output until the queue drains below 
+ * the low watermark and <code>handleWritable</code> is called.
+ */
 public abstract class Pipeline extends Dispatcher {
+    /**
+     * The maximum number of buffers gathered in a single write.
+     */
+    public static final int GATHER = 64;
     protected boolean _stalledIn = false;
-    protected ByteBuffer _bufferIn;
-    protected ByteBuffer _bufferOut;
-    protected LinkedList _fifoOut = new LinkedList();
+    protected ByteBuffer _bufferIn = null;
+    protected int _bufferInSize;
+    protected int _bufferOutSize;
+    protected ByteBuffer[] _gather = new ByteBuffer[GATHER];
+    protected int _gatherFrom = 0;
+    protected int _gatherTo = 0;
+    protected int _staged = 0;
+    protected FileRegion _region = null;
+    protected int _queued = 0;
+    protected int _lowWatermark = 16384;
+    protected int _highWatermark = 65536;
+    protected boolean _saturated = false;
+    protected OutputQueue _fifoOut = new OutputQueue();
     public Pipeline () {
         super();
-        _bufferIn = ByteBuffer.wrap(new byte[16384]);
-        _bufferOut = ByteBuffer.wrap(new byte[16384]);
+        _bufferInSize = 16384;
+        _bufferOutSize = 16384;
         return;
     }
     public Pipeline(int in, int out) {
         super();
-        _bufferIn = ByteBuffer.wrap(new byte[in]);
-        _bufferOut = ByteBuffer.wrap(new byte[out]);
+        _bufferInSize = in;
+        _bufferOutSize = out;
         return;
     }
     public Pipeline (Loop loop) {
         super(loop);
-        _bufferIn = ByteBuffer.wrap(new byte[16384]);
-        _bufferOut = ByteBuffer.wrap(new byte[16384]);
+        _bufferInSize = 16384;
+        _bufferOutSize = 16384;
         return;
     }
     public Pipeline(Loop loop, int in, int out) {
         super(loop);
-        _bufferIn = ByteBuffer.wrap(new byte[in]);
-        _bufferOut = ByteBuffer.wrap(new byte[out]);
+        _bufferInSize = in;
+        _bufferOutSize = out;
         return;
     }
     public final int bufferInSize () {
-    	return _bufferIn.capacity();
+    	return _bufferInSize;
     }
     public final int bufferOutSize () {
-    	return _bufferOut.capacity();
+    	return _bufferOutSize;
+    }
+    /**
+     * @return the number of bytes staged and not sent yet
+     */
+    public final int staged () {
+        return _staged;
+    }
+    /**
+     * Set the number of queued bytes above which this pipeline is 
+     * saturated and below which it is writable again.
+     * 
+     * @param low watermark in bytes
+     * @param high watermark in bytes
+     */
+    public final void setWatermarks (int low, int high) {
+        if (low > high) {
+            throw new Error("low watermark above the high one");
+        }
+        _lowWatermark = low;
+        _highWatermark = high;
+    }
+    /**
+     * @return the number of bytes queued and not sent yet
+     */
+    public final int queued () {
+        return _queued;
+    }
+    /**
+     * @return <code>true</code> if more bytes are queued than the high 
+     * watermark and did not drain below the low one yet
+     */
+    public final boolean saturated () {
+        return _saturated;
     }
     public final void push (ByteBuffer data) {
-        _fifoOut.add(data);
+        _fifoOut.addBuffer(data);
+        _queue(data.remaining());
+        interest();
     }
     public void pull () {
         _stalledIn = false;
-        if (_bufferIn.limit() > 0) {
+        interest();
+        if (_bufferIn != null) {
             _bufferIn.flip();
             try {
                 collect();
             } catch (Throwable e) {
                 handleError(e);
             }
-            _bufferIn.compact();
+            if (_bufferIn != null) {
+                _bufferIn.compact();
+                _bufferIn.limit(_bufferInSize);
+                _releaseIn();
+            }
         }
     }
     public boolean readable () {
-        return !(_stalledIn || (_bufferIn.remaining() == 0));
+        // an accepted channel is not writable until its first read
+        return !(
+            _stalledIn || (_saturated && _connected) || 
+            (_bufferIn != null && _bufferIn.remaining() == 0)
+            );
     }
     public final void handleAccept () throws Throwable {
         throw new Error("Unexpected accept event");
     }
     public final void handleWrite () throws Throwable {
-        if (produce()) {
-            _bufferOut.flip();
-            send(_bufferOut);
-            _bufferOut.compact();
+        if (_gatherFrom > 0) {
+            int pending = _gatherTo - _gatherFrom;
+            System.arraycopy(_gather, _gatherFrom, _gather, 0, pending);
+            for (int i = pending; i < _gatherTo; i++) {
+                _gather[i] = null;
+            }
+            _gatherFrom = 0;
+            _gatherTo = pending;
+        }
+        if (_region != null || produce()) {
+            if (_channel == null) {
+                return; // closed while producing
+            } else if (_gatherTo > 0) {
+                int sent = (int) sendv(_gather, 0, _gatherTo);
+                _staged = _staged - sent;
+                while (
+                    _gatherFrom < _gatherTo && 
+                    !_gather[_gatherFrom].hasRemaining()
+                    ) {
+                    _gather[_gatherFrom++] = null;
+                }
+                if (_gatherFrom == _gatherTo) {
+                    _gatherFrom = _gatherTo = 0;
+                }
+                _dequeue(sent);
+            } else if (_region != null) {
+                transfer(_region);
+                if (_region.remaining() == 0) {
+                    _region.close();
+                    _region = null;
+                }
+            }
         } else {
             close ();
         }
     }
     public final void handleRead () throws Throwable {
+        if (_bufferIn == null) {
+            _bufferIn = _loop._buffers.borrow(_bufferInSize);
+            _bufferIn.limit(_bufferInSize);
+        }
         if (recv(_bufferIn) > 0) {
             _bufferIn.flip();
             collect();
-            _bufferIn.compact();
+            if (_bufferIn != null) {
+                _bufferIn.compact();
+                _bufferIn.limit(_bufferInSize);
+            }
         }
+        _releaseIn();
     }
-    protected final boolean _fillOut (byte[] data) {
-        try {
-            _bufferOut.put(data); // .put(data) fails on position() :-(
-        } catch (BufferOverflowException e) {
-            int left = _bufferOut.remaining(); 
-            int over = data.length-left;
-            _bufferOut.put(data, 0, left);
-            ByteBuffer extra = ByteBuffer.wrap(new byte[over]);
-            extra.put(data, left, over);
-            _fifoOut.addFirst(extra);
-            return true;
+    /**
+     * Return the input buffer to the loop's pool if it holds no bytes left
+     * to collect.
+     */
+    protected final void _releaseIn () {
+        if (_bufferIn != null && _bufferIn.position() == 0) {
+            _loop._buffers.release(_bufferIn);
+            _bufferIn = null;
         }
-        return false;
+    }
+    /**
+     * Close this pipeline, return its input buffer to the loop's pool and
+     * close the file region it was transferring.
+     */
+    public void close () {
+        super.close();
+        if (_bufferIn != null) {
+            _loop._buffers.release(_bufferIn);
+            _bufferIn = null;
+        }
+        if (_region != null) {
+            _region.close();
+            _region = null;
+        }
+    }
+    /**
+     * Stage a buffer's remaining bytes for the next gathering write, 
+     * without copying them.
+     * 
+     * @param buffer to stage
+     * @return <code>true</code> if no more buffers should be staged
+     */
+    protected final boolean _stage (ByteBuffer buffer) {
+        if (buffer.hasRemaining()) {
+            _gather[_gatherTo++] = buffer;
+            _staged = _staged + buffer.remaining();
+        }
+        return _full();
+    }
+    /**
+     * @return <code>true</code> if no more buffers can be staged until the
+     * ones staged are sent
+     */
+    protected final boolean _full () {
+        return (_gatherTo == GATHER || _staged >= _bufferOutSize);
+    }
+    /**
+     * Count bytes queued and signal backpressure when the high watermark is
+     * passed.
+     * 
+     * @param bytes queued
+     */
+    protected final void _queue (int bytes) {
+        _queued = _queued + bytes;
+        if (!_saturated && _queued > _highWatermark) {
+            _saturated = true;
+            interest();
+            handleBackpressure();
+        }
+    }
+    /**
+     * Count bytes sent and signal when the queue drained below the low 
+     * watermark.
+     * 
+     * @param bytes sent
+     */
+    protected final void _dequeue (int bytes) {
+        _queued = _queued - bytes;
+        if (_saturated && _queued <= _lowWatermark) {
+            _saturated = false;
+            interest();
+            handleWritable();
+        }
+    }
+    /**
+     * @return <code>true</code> if staged bytes or a region remain to be 
+     * sent
+     */
+    protected final boolean _pending () {
+        return _gatherTo > _gatherFrom || _region != null;
     }
     public final void closeWhenDone () {
-        _fifoOut.add(null);
+        _fifoOut.addClose();
+        interest();
+    }
+    // To override ...
+    /**
+     * Handle the queue of output passing the high watermark, by default do
+     * nothing: the pipeline stops reading until it drains.
+     */
+    public void handleBackpressure () {
+    }
+    /**
+     * Handle the queue of output draining below the low watermark after 
+     * it was saturated, by default do nothing.
+     */
+    public void handleWritable () {
     }
     public abstract void collect () throws Throwable;
     public abstract boolean produce () throws Throwable;
@@ -0,0 +1,70 @@
+/*  Copyright (C) 2007 Laurent A.V. Szyster
+ *
+ *  This library is free software; you can redistribute it and/or modify
+ *  it under the terms of version 2 of the GNU General Public License as
+ *  published by the Free Software Foundation.
+ *  
+ *   http://www.gnu.org/copyleft/gpl.html
+ *  
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *  
+ *  You should have received a copy of the GNU General Public License
+ *  along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ *  USA
+ *  
+ */
+
+package org.async.core;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A limit on the number of dispatchers admitted concurrently in the 
+ * selectors of one or more loops, for instance the channels accepted by a 
+ * <code>Server</code>.
+ * 
+ * @p Dispatchers over their quota wait for admission like the ones over 
+ * their loop's concurrency, without keeping others from being admitted.
+ */
+public final class Quota {
+    protected final int _limit;
+    protected final AtomicInteger _admitted = new AtomicInteger(0);
+    /**
+     * Create a quota of dispatchers admitted concurrently.
+     * 
+     * @param limit of dispatchers admitted
+     */
+    public Quota (int limit) {
+        _limit = limit;
+    }
+    public final int limit () {
+        return _limit;
+    }
+    /**
+     * Get the number of dispatchers admitted under this quota.
+     * 
+     * @return the number of dispatchers admitted
+     */
+    public final int admitted () {
+        return _admitted.get();
+    }
+    protected final boolean _available () {
+        return _admitted.get() < _limit;
+    }
+    protected final boolean _admit () {
+        int admitted;
+        do {
+            admitted = _admitted.get();
+            if (admitted >= _limit) {
+                return false;
+            }
+        } while (!_admitted.compareAndSet(admitted, admitted + 1));
+        return true;
+    }
+    protected final void _release () {
+        _admitted.decrementAndGet();
+    }
+}
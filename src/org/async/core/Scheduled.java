@@ -22,7 +22,8 @@ package org.async.core;
 import org.simple.Fun;
 
 /**
- * ...
+ * An event scheduled in a loop's <code>Wheel</code>, and its own handle to
+ * cancel it.
  * 
  */
 public abstract class Scheduled implements Comparable {
@@ -30,6 +31,30 @@ public abstract class Scheduled implements Comparable {
      * The time at which this event was scheduled, in milliseconds.
      */
     public long when = 0;
+    protected Wheel _wheel = null;
+    protected Scheduled _prev = null;
+    protected Scheduled _next = null;
+    protected int _slot = -1;
+    /**
+     * Find out wether this event is scheduled or not.
+     * 
+     * @return true if this event is scheduled
+     */
+    public final boolean scheduled () {
+        return _wheel != null;
+    }
+    /**
+     * Cancel this event if it is scheduled.
+     * 
+     * @return true if this event was cancelled
+     */
+    public final boolean cancel () {
+        if (_wheel == null) {
+            return false;
+        } else {
+            return _wheel.remove(this);
+        }
+    }
     /**
      * Compare this event's scheduled time to another one.
      * 
@@ -75,6 +100,12 @@ public abstract class Scheduled implements Comparable {
      * 
      */
     public abstract long apply (Loop loop) throws Throwable;
+    /**
+     * Called by the loop when this event is applied and does not recur,
+     * does nothing by default.
+     */
+    protected void finish () {
+    }
     protected static final class _Function extends Scheduled {
         public Fun function;
         public _Function (long when, Fun function) {
@@ -93,5 +124,10 @@ public abstract class Scheduled implements Comparable {
                     );
             }
         };
+        protected final void finish () {
+            if (function instanceof Call) {
+                ((Call) function).finish();
+            }
+        }
     }
 }
@@ -0,0 +1,110 @@
+/*  Copyright (C) 2007 Laurent A.V. Szyster
+ *
+ *  This library is free software; you can redistribute it and/or modify
+ *  it under the terms of version 2 of the GNU General Public License as
+ *  published by the Free Software Foundation.
+ *  
+ *   http://www.gnu.org/copyleft/gpl.html
+ *  
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *  
+ *  You should have received a copy of the GNU General Public License
+ *  along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ *  USA
+ *  
+ */
+
+package org.async.core;
+
+import java.nio.channels.Selector;
+import java.nio.channels.SelectionKey;
+
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.lang.reflect.Field;
+
+/**
+ * An array of selected keys swapped into a <code>Selector</code> in place 
+ * of its <code>HashSet</code>, so that selecting and dispatching ready 
+ * channels allocates nothing.
+ * 
+ * @p The selector only adds keys to this set, the loop reads them back by
+ * index and resets it after each select. When the selector implementation
+ * cannot be opened (a JVM without access to <code>sun.nio.ch</code>), the 
+ * loop falls back to iterate and clear the selector's own set.
+ */
+final class SelectedKeys extends AbstractSet<SelectionKey> {
+    protected SelectionKey[] _keys = new SelectionKey[1024];
+    protected int _size = 0;
+    /**
+     * Try to swap a new array of selected keys into a selector.
+     * 
+     * @param selector to instrument
+     * @return the swapped in keys or <code>null</code>
+     */
+    protected static final SelectedKeys install (Selector selector) {
+        SelectedKeys keys = new SelectedKeys();
+        try {
+            Class impl = Class.forName("sun.nio.ch.SelectorImpl");
+            if (!impl.isInstance(selector)) {
+                return null;
+            }
+            Field selected = impl.getDeclaredField("selectedKeys");
+            Field published = impl.getDeclaredField("publicSelectedKeys");
+            selected.setAccessible(true);
+            published.setAccessible(true);
+            selected.set(selector, keys);
+            published.set(selector, keys);
+            return keys;
+        } catch (Throwable e) {
+            return null;
+        }
+    }
+    public final boolean add (SelectionKey key) {
+        if (key == null) {
+            return false;
+        }
+        if (_size == _keys.length) {
+            SelectionKey[] grown = new SelectionKey[_size * 2];
+            System.arraycopy(_keys, 0, grown, 0, _size);
+            _keys = grown;
+        }
+        _keys[_size++] = key;
+        return true;
+    }
+    /**
+     * Always false, each ready key is added at most once per select.
+     */
+    public final boolean contains (Object key) {
+        return false;
+    }
+    public final boolean remove (Object key) {
+        return false;
+    }
+    public final void clear () {
+        for (int i = 0; i < _size; i++) {
+            _keys[i] = null;
+        }
+        _size = 0;
+    }
+    public final int size () {
+        return _size;
+    }
+    public final Iterator<SelectionKey> iterator () {
+        return new Iterator<SelectionKey>() {
+            private int _index = 0;
+            public final boolean hasNext () {
+                return _index < _size;
+            }
+            public final SelectionKey next () {
+                return _keys[_index++];
+            }
+            public final void remove () {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+}
@@ -24,6 +24,8 @@ import java.nio.channels.SocketChannel;
 import java.util.Iterator;
 import java.util.HashSet;
 
+import org.simple.Fun;
+
 
 public abstract class Server extends Dispatcher {
     protected static class Maintenance extends Scheduled {
@@ -32,7 +34,11 @@ public abstract class Server extends Dispatcher {
             _server = server;
         }
         public final long apply(Loop loop) {
-            if (_server._dispatchers.isEmpty()) {
+            boolean empty;
+            synchronized (_server._dispatchers) {
+                empty = _server._dispatchers.isEmpty();
+            }
+            if (empty) {
                 _server._active = null;
                 _server.serverSleep();
                 return -1;
@@ -42,7 +48,43 @@ public abstract class Server extends Dispatcher {
             }
         }
     }
+    /**
+     * Add an accepted socket to the loop of the thread applying it.
+     */
+    protected static final class Accepted implements Fun {
+        private Server _server;
+        private SocketChannel _socket;
+        public Accepted (Server server, SocketChannel socket) {
+            _server = server;
+            _socket = socket;
+        }
+        public final Object apply (Object input) throws Throwable {
+            _server._serverAccepted(_socket);
+            return null;
+        }
+    }
+    /**
+     * Close the inactive channels of a loop, applied in that loop.
+     */
+    protected static final class Inactives implements Fun {
+        private Server _server;
+        private Loop _loop;
+        private int _in;
+        private int _out;
+        public Inactives (Server server, Loop loop, int in, int out) {
+            _server = server;
+            _loop = loop;
+            _in = in;
+            _out = out;
+        }
+        public final Object apply (Object input) throws Throwable {
+            _server._closeWhenDone(_loop, _in, _out);
+            return null;
+        }
+    }
     private Maintenance _active = null;
+    protected LoopGroup _group = null;
+    protected Quota _channelsQuota = null;
     protected boolean _accepting = true;
     protected long _accepted = 0; 
     protected long _dispatched = 0; 
@@ -62,10 +104,7 @@ public abstract class Server extends Dispatcher {
     }
     public void close() {
         super.close();
-        Iterator<Pipeline> streams = _dispatchers.iterator();
-        while (streams.hasNext()) {
-            streams.next().closeWhenDone();
-        }
+        _closeInactivesWhenDone(_loop, -1, 0);
     }
     public final boolean writable () {
         return false;
@@ -76,9 +115,11 @@ public abstract class Server extends Dispatcher {
     public final void handleAccept() throws Throwable {
         SocketChannel socket = accept();
         if (socket != null) {
-            Pipeline channel = serverAccept();
-            channel.accepted(socket);
-            _dispatchers.add(channel);
+            if (_group == null) {
+                _serverAccepted(socket);
+            } else {
+                _group.next().defer(new Accepted(this, socket));
+            }
             _accepted++;
             if (_active == null) {
                 _active = new Maintenance(this);
@@ -108,22 +149,93 @@ public abstract class Server extends Dispatcher {
     public final long channelsDispatched () {
         return _dispatched;
     }
+    /**
+     * Iterate through this server's channels.
+     * 
+     * @return an iterator of <code>Pipeline</code>
+     * 
+     * @p Note that when this server distributes its channels to a 
+     * <code>LoopGroup</code> the iteration must be synchronized on
+     * the <code>_dispatchers</code> set.
+     */
     public final Iterator<Pipeline> channels() {
         return _dispatchers.iterator();
     }
+    /**
+     * Distribute the channels accepted by this server to the loops of a 
+     * group, or to this server's loop if <code>group</code> is null.
+     * 
+     * @param group of loops
+     * 
+     * @p Channels are then instanciated by <code>serverAccept</code> in the 
+     * thread that dispatches their loop, and <code>serverClose</code> is 
+     * called from that thread too.
+     */
+    public final void serverDistribute(LoopGroup group) {
+        _group = group;
+    }
+    /**
+     * Limit the number of this server's channels admitted concurrently in
+     * the selectors of its loops, or remove the limit if it is not 
+     * positive.
+     * 
+     * @param limit of channels admitted
+     * 
+     * @p Channels over quota wait their turn for admission, as others do
+     * when their loop is at its maximum concurrency. The quota applies to 
+     * channels accepted after it is set.
+     */
+    public final void serverQuota(int limit) {
+        _channelsQuota = (limit > 0) ? new Quota(limit): null;
+    }
     public final void serverClose(Dispatcher channel) {
-        bytesIn += channel.bytesIn;
-        bytesOut += channel.bytesOut;
-        _dispatched++;
-        _dispatchers.remove(channel);
+        synchronized (_dispatchers) {
+            bytesIn += channel.bytesIn;
+            bytesOut += channel.bytesOut;
+            _dispatched++;
+            _dispatchers.remove(channel);
+        }
     }
     public final void serverCloseInactivesWhenDone (int in, int out) {
+        _closeInactivesWhenDone(_loop, in, out);
+    }
+    protected final void _serverAccepted (SocketChannel socket) 
+    throws Throwable {
+        Pipeline channel = serverAccept();
+        channel._quota = _channelsQuota;
+        channel.accepted(socket);
+        synchronized (_dispatchers) {
+            _dispatchers.add(channel);
+        }
+    }
+    protected final void _closeInactivesWhenDone (Loop loop, int in, int out) {
+        _closeWhenDone(loop, in, out);
+        if (_group != null) {
+            for (int i = 0; i < _group._loops.length; i++) {
+                if (_group._loops[i] != loop) {
+                    _group._loops[i].defer(
+                        new Inactives(this, _group._loops[i], in, out)
+                        );
+                }
+            }
+        }
+    }
+    /**
+     * Close when done the channels of this server dispatched by a given
+     * loop that are inactive or all of them if <code>in</code> is negative.
+     */
+    protected final void _closeWhenDone (Loop loop, int in, int out) {
         Pipeline stream;
-        Iterator<Pipeline> streams = _dispatchers.iterator();
-        while (streams.hasNext()) {
-            stream = streams.next();
-            if (stream._fifoOut.isEmpty() && stream.inactive(in, out)) {
-                stream.closeWhenDone();
+        synchronized (_dispatchers) {
+            Iterator<Pipeline> streams = _dispatchers.iterator();
+            while (streams.hasNext()) {
+                stream = streams.next();
+                if (stream._loop == loop && (in < 0 || (
+                    stream._fifoOut.isEmpty() && !stream._pending() && 
+                    stream.inactive(in, out)
+                    ))) {
+                    stream.closeWhenDone();
+                }
             }
         }
     }
@@ -144,7 +256,9 @@ public abstract class Server extends Dispatcher {
             ", \"dispatched\": " + _dispatched + 
             ", \"bytesIn\": " + bytesIn + 
             ", \"bytesOut\": " + bytesOut + " }");
-        _dispatched = _accepted = bytesIn = bytesOut = 0;
+        synchronized (_dispatchers) {
+            _dispatched = _accepted = bytesIn = bytesOut = 0;
+        }
     }
 }
 
@@ -26,4 +26,26 @@ public final class Static {
      * Convenience for the common application case where one loop is enough.
      */
     public static Loop loop = new Loop();
+    /**
+     * The loop dispatched by each thread, set by <code>Loop.dispatch</code>.
+     */
+    static final ThreadLocal<Loop> _current = new ThreadLocal<Loop>();
+    /**
+     * Get the loop dispatched by the current thread or the 
+     * <code>Static.loop</code> if it does not dispatch one.
+     * 
+     * @return the current thread's loop
+     * 
+     * @p This is the default loop of all <code>Call</code> instances, so that
+     * dispatchers instanciated by the handlers of a <code>LoopGroup</code>'s 
+     * loop are added to that same loop.
+     */
+    public static final Loop current () {
+        Loop current = _current.get();
+        if (current == null) {
+            return loop;
+        } else {
+            return current;
+        }
+    }
 }
@@ -22,26 +22,38 @@ package org.async.core;
 import java.util.LinkedList;
 
 public abstract class Timeouts extends Scheduled {
-    protected final class Timeout {
+    /**
+     * The handle of a reference pushed, to cancel its timeout.
+     */
+    public final class Timeout {
         long _when;
         Object _reference;
+        boolean _cancelled = false;
         Timeout(long when, Object reference) {
             _when = when;
             _reference = reference;
         }
+        /**
+         * Cancel this timeout, in constant time: the handle is dropped when
+         * its time comes, without calling back.
+         */
+        public final void cancel () {
+            _cancelled = true;
+            _reference = null;
+        }
     }
     protected int _period;
     protected int _precision;
     protected Loop _loop;
     protected LinkedList _deque = new LinkedList();
     public Timeouts (int period) {
-        _loop = Static.loop;
+        _loop = Static.current();
         _period = (period < _loop._precision) ? 
             _loop._precision: period;
         _precision = _loop._precision;
     }
     public Timeouts (int period, int precision) {
-        _loop = Static.loop;
+        _loop = Static.current();
         _period = (period < _loop._precision) ? 
             _loop._precision: period;
         _precision = (precision < _loop._precision) ? 
@@ -54,11 +66,13 @@ public abstract class Timeouts extends Scheduled {
         _precision = (precision < _loop._precision) ? 
             _loop._precision: precision;
     }
-    public final void push (long when, Object reference) {
+    public final Timeout push (long when, Object reference) {
         if (_deque.isEmpty()) {
             _start();
         }
-        _deque.add(new Timeout(when, reference));
+        Timeout to = new Timeout(when, reference);
+        _deque.add(to);
+        return to;
     }
     protected final void _start() {
         _loop._scheduled.add(this);
@@ -70,6 +84,9 @@ public abstract class Timeouts extends Scheduled {
             to = (Timeout) _deque.peek();
             if (to._when < then) {
                 _deque.removeFirst();
+                if (to._cancelled) {
+                    continue;
+                }
                 try {
                 	timeout(to._reference);
                 } catch (Throwable e) {
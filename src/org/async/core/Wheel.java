@@ -0,0 +1,189 @@
+/*  Copyright (C) 2007 Laurent A.V. Szyster
+ *
+ *  This library is free software; you can redistribute it and/or modify
+ *  it under the terms of version 2 of the GNU General Public License as
+ *  published by the Free Software Foundation.
+ *  
+ *   http://www.gnu.org/copyleft/gpl.html
+ *  
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *  
+ *  You should have received a copy of the GNU General Public License
+ *  along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ *  USA
+ *  
+ */
+
+package org.async.core;
+
+import java.util.ArrayList;
+
+/**
+ * A hashed timing wheel of <code>Scheduled</code> events, one slot per 
+ * millisecond.
+ * 
+ * @p Events are linked in the slot of their time modulo the size of the 
+ * wheel, so that adding and removing an event is done in constant time 
+ * and without allocation. Events scheduled at the same time are all kept, 
+ * in the order they were added.
+ * 
+ * @p Expiring the events due walks the slots of the milliseconds elapsed 
+ * since the last expiration, at most once around the wheel. Events that 
+ * are due later than one turn stay in their slot until their time comes.
+ */
+public final class Wheel {
+    /**
+     * The slot of an event expired but not yet applied.
+     */
+    protected static final int DUE = -2;
+    protected Scheduled[] _slots;
+    protected int _mask;
+    protected long _tick;
+    protected int _size = 0;
+    /**
+     * Create a wheel of a given number of slots, rounded up to the next
+     * power of two, starting at a given time.
+     * 
+     * @param slots of the wheel
+     * @param now in milliseconds
+     */
+    public Wheel (int slots, long now) {
+        int size = 1;
+        while (size < slots) {
+            size = size << 1;
+        }
+        _slots = new Scheduled[size];
+        _mask = size - 1;
+        _tick = now;
+    }
+    /**
+     * Get the number of events scheduled in this wheel.
+     * 
+     * @return the number of events scheduled
+     */
+    public final int size () {
+        return _size;
+    }
+    public final boolean isEmpty () {
+        return _size == 0;
+    }
+    /**
+     * Add an event to this wheel at its <code>when</code> time, moving it 
+     * if it was already scheduled.
+     * 
+     * @param event to schedule
+     * 
+     * @p The wheel does not turn while it is empty, so the first event 
+     * added after an idle period resynchronizes it to the current time or
+     * to the event's time if it is earlier. Otherwise a wheel left more than
+     * one turn behind would not find the slot of that event.
+     */
+    public final void add (Scheduled event) {
+        if (event._wheel != null) {
+            event._wheel.remove(event);
+        }
+        if (_size == 0) {
+            _tick = Math.min(event.when, System.currentTimeMillis());
+        }
+        int slot = (int) ((event.when < _tick ? _tick: event.when) & _mask);
+        Scheduled head = _slots[slot];
+        event._prev = null;
+        event._next = head;
+        if (head != null) {
+            head._prev = event;
+        }
+        _slots[slot] = event;
+        event._slot = slot;
+        event._wheel = this;
+        _size++;
+    }
+    /**
+     * Remove an event from this wheel, or cancel it if it expired but was 
+     * not yet applied.
+     * 
+     * @param event to remove
+     * @return <code>true</code> if the event was removed
+     */
+    public final boolean remove (Scheduled event) {
+        if (event._wheel != this) {
+            return false;
+        } 
+        if (event._slot > -1) {
+            if (event._prev == null) {
+                _slots[event._slot] = event._next;
+            } else {
+                event._prev._next = event._next;
+            }
+            if (event._next != null) {
+                event._next._prev = event._prev;
+            }
+            _size--;
+        }
+        event._prev = event._next = null;
+        event._slot = -1;
+        event._wheel = null;
+        return true;
+    }
+    /**
+     * Get the time left until the first event due, at most a given limit.
+     * 
+     * @param now in milliseconds
+     * @param limit in milliseconds
+     * @return the milliseconds to wait, <code>0</code> if an event is due
+     * 
+     * @p Only the slots between the last expiration and the limit are
+     * walked, skipping the events due in later turns of the wheel.
+     */
+    public final int timeout (long now, int limit) {
+        long last = now + limit;
+        if (last - _tick > _mask) {
+            last = _tick + _mask;
+        }
+        Scheduled event;
+        for (long tick = _tick; tick < last; tick++) {
+            event = _slots[(int) (tick & _mask)];
+            while (event != null) {
+                if (event.when <= tick) {
+                    return (tick > now) ? (int) (tick - now): 0;
+                }
+                event = event._next;
+            }
+        }
+        return limit;
+    }
+    /**
+     * Move the events due at a given time from this wheel into a list.
+     * 
+     * @param now in milliseconds
+     * @param expired list to fill
+     * 
+     * @p Expired events stay attached to this wheel until they are applied 
+     * or removed, so that they can still be cancelled.
+     */
+    public final void expire (long now, ArrayList<Scheduled> expired) {
+        long last = now;
+        if (now - _tick > _mask) {
+            last = _tick + _mask; // once around the wheel
+        }
+        Scheduled event, next;
+        int slot;
+        for (long tick = _tick; tick <= last && _size > 0; tick++) {
+            slot = (int) (tick & _mask);
+            event = _slots[slot];
+            while (event != null) {
+                next = event._next;
+                if (event.when <= now) {
+                    remove(event);
+                    event._wheel = this;
+                    event._slot = DUE;
+                    expired.add(event);
+                }
+                event = next;
+            }
+        }
+        _tick = now + 1;
+    }
+}
@@ -38,6 +38,7 @@ import java.net.InetSocketAddress;
  */
 public class Log implements Fun, Loginfo {
     protected class Channel extends NetDispatcher {
+        protected int _dropped = 0;
         public final Object apply(Object value) throws Throwable {
             return null;
         }
@@ -56,9 +57,29 @@ public class Log implements Fun, Loginfo {
         public final void handleClose() throws Throwable {
             log("close");
         }
+        /**
+         * Drop messages while the log server does not keep up ...
+         */
+        public final void handleBackpressure() {
+            _dropped = 0;
+        }
+        /**
+         * ... and log how many were dropped when it does again.
+         */
+        public final void handleWritable() {
+            if (_dropped > 0) {
+                push(Bytes.encode(
+                    "dropped " + _dropped + " messages", Bytes.UTF8
+                    ));
+                _dropped = 0;
+            }
+        }
         public final void push (String data) throws Throwable {
             if (_channel == null) {
                 connect(); // reconnect closed channel ...
+            } else if (_saturated) {
+                _dropped++;
+                return;
             }
             push(Bytes.encode(data, Bytes.UTF8));
         }
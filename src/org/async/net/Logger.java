@@ -59,7 +59,7 @@ public final class Logger extends Server {
         protected Logger _server;
         protected BufferedOutputStream _output;
         public Channel (Logger server) {
-            super(server._loop, 16384, 0);
+            super(Static.current(), 16384, 0);
             _server = server;
         }
         public final Object apply (Object value) throws Throwable {
@@ -22,6 +22,7 @@ package org.async.net;
 import java.nio.ByteBuffer;
 
 import org.async.core.Loop;
+import org.async.core.OutputQueue;
 import org.async.core.Pipeline;
 
 /**
@@ -45,6 +46,8 @@ public abstract class NetDispatcher extends Pipeline {
     private static final String 
     ERROR_TOO_LONG = "too long netstring";
     
+    private static final byte[] _COMMA = new byte[]{44};
+    
     protected int _terminator = 0;
     protected int _limit = 10; // 9.999.999.999 10GB
     public NetDispatcher () {
@@ -60,15 +63,12 @@ public abstract class NetDispatcher extends Pipeline {
         super(loop, in, out);
     }
     public final void push (byte[] data) {
-        byte[] length = Integer.toString(data.length).getBytes();
-        ByteBuffer buffer = ByteBuffer.allocate(
-            data.length + length.length + 2
-            );
-        buffer.put(length);
-        buffer.put((byte)58);
-        buffer.put(data);
-        buffer.put((byte)44);
-        _fifoOut.add(buffer);
+        byte[] length = (Integer.toString(data.length) + ":").getBytes();
+        _fifoOut.addBuffer(ByteBuffer.wrap(length));
+        _fifoOut.addBuffer(ByteBuffer.wrap(data));
+        _fifoOut.addBuffer(ByteBuffer.wrap(_COMMA));
+        _queue(length.length + data.length + 1);
+        interest();
     }
     public final void collect () throws Throwable {
         byte[] data;
@@ -152,25 +152,17 @@ public abstract class NetDispatcher extends Pipeline {
         _terminator = 0;
     }
     public boolean writable () {
-        return !(
-            _bufferOut.position() == 0 && 
-            _fifoOut.isEmpty() && 
-            _connected
-            );
+        return !(!_pending() && _fifoOut.isEmpty() && _connected);
     }
     public final boolean produce () {
-        Object first;
+        if (_full()) {
+            return true; // send the bytes staged first
+        }
         while (!_fifoOut.isEmpty()) {
-            first = _fifoOut.removeFirst();
-            if (first == null) {
-                if (_bufferOut.position() == 0) {
-                    _bufferOut.limit(0);
-                    return false;
-                } else {
-                    _fifoOut.addFirst(null); // we'll be done soon ...
-                    break;
-                }
-            } else if (_fillOut(((ByteBuffer) first).array())) {
+            if (_fifoOut.kind() == OutputQueue.CLOSE) {
+                return _pending(); // we'll be done soon ...
+            }
+            if (_stage((ByteBuffer) _fifoOut.removeFirst())) {
                 break; 
             }
         }
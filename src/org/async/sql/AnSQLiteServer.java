@@ -59,7 +59,7 @@ public class AnSQLiteServer extends Server {
         protected AnSQLiteServer _server;
         private ByteBuffer _buffer;
         public Channel (AnSQLiteServer server) {
-            super(server._loop, 16384, 16384);
+            super(Static.current(), 16384, 16384);
             _server = server;
         }
         public final Object apply (Object value) throws Throwable {
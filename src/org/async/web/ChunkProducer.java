@@ -19,18 +19,31 @@
 
 package org.async.web;
 
+import org.async.chat.BufferProducer;
 import org.async.chat.Producer;
 import org.simple.Strings;
 import org.simple.Bytes;
 import java.util.ArrayList;
 import java.nio.ByteBuffer;
 
-public class ChunkProducer implements Producer {
+/**
+ * Frame the bytes of a producer in HTTP/1.1 chunks.
+ * 
+ * @p Handed to a <code>ChatDispatcher</code>, the framing is sent as 
+ * separate buffers gathered with the chunks' data: the size line of each 
+ * chunk, preceded by the CRLF ending the previous one, then the data as it 
+ * was produced and finally the last chunk with its footers. Otherwise each 
+ * chunk is copied with its framing by <code>more</code>.
+ */
+public class ChunkProducer implements BufferProducer {
     
     private static final byte[] _terminator = "0\r\n\r\n".getBytes();
+    private static final byte[] _HEX = "0123456789abcdef".getBytes();
     
     protected Producer _wrapped = null;
     protected byte[] _footers = _terminator;
+    protected ByteBuffer _data = null;
+    protected boolean _first = true;
 
     public ChunkProducer(Producer wrapped) {
         _wrapped = wrapped;
@@ -48,6 +61,62 @@ public class ChunkProducer implements Producer {
         return _wrapped != null && _wrapped.stalled();
     }
 
+    public ByteBuffer buffer() throws Throwable {
+        if (_data != null) {
+            ByteBuffer data = _data;
+            _data = null;
+            return data;
+        } else if (_wrapped == null) {
+            return null;
+        }
+        ByteBuffer data = null;
+        if (_wrapped instanceof BufferProducer) {
+            data = ((BufferProducer) _wrapped).buffer();
+        }
+        if (data == null) {
+            byte[] bytes = _wrapped.more();
+            if (bytes != null) {
+                data = ByteBuffer.wrap(bytes);
+            }
+        }
+        if (data == null) {
+            _wrapped = null;
+            if (_first) {
+                return ByteBuffer.wrap(_footers);
+            }
+            ByteBuffer last = ByteBuffer.allocate(_footers.length + 2);
+            last.put(Bytes.CRLF);
+            last.put(_footers);
+            last.flip();
+            return last;
+        } else if (!data.hasRemaining()) {
+            return data; // not an empty last chunk
+        }
+        _data = data;
+        return ByteBuffer.wrap(_sizeLine(data.remaining()));
+    }
+    
+    private final byte[] _sizeLine(int size) {
+        int digits = 1;
+        for (int n = size >>> 4; n > 0; n = n >>> 4) {
+            digits++;
+        }
+        int at = (_first) ? 0: 2;
+        byte[] line = new byte[at + digits + 2];
+        if (!_first) {
+            line[0] = '\r';
+            line[1] = '\n';
+        }
+        _first = false;
+        for (int i = at + digits - 1; i >= at; i--) {
+            line[i] = _HEX[size & 15];
+            size = size >>> 4;
+        }
+        line[at + digits] = '\r';
+        line[at + digits + 1] = '\n';
+        return line;
+    }
+
     public byte[] more() throws Throwable {
         if (_wrapped == null) {
             return null;
@@ -1,32 +1,178 @@
 package org.async.web;
 
 import org.async.web.HttpServer;
+import org.async.core.Loop;
+import org.async.core.Scheduled;
 import org.async.chat.BytesProducer;
+import org.async.chat.FileProducer;
+import org.async.chat.Producer;
+import org.async.chat.SliceProducer;
 import org.protocols.HTTP;
-import org.simple.SIO;
+import org.simple.Fun;
 import java.io.File;
+import java.io.FileInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
 import java.util.Iterator;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 
 /**
- * ...
+ * A cache of the files under a root directory, loaded on their first 
+ * request and evicted when they do not fit in a byte budget.
+ * 
+ * @p Files are loaded on the heap or, with a byte budget, memory-mapped 
+ * once, each response sending a read-only duplicate of the mapped buffer 
+ * without copying it and the OS page cache deciding what stays in memory. 
+ * Files that are not cached are sent from the file system, like 
+ * <code>FileSystem</code> does.
+ * 
+ * @p Eviction follows a W-TinyLFU policy: new files enter a small LRU 
+ * window and the ones it evicts replace the least recently used files of 
+ * the main cache only if they were requested more frequently, as estimated 
+ * by a count-min sketch of recent requests. So a scan of rarely requested 
+ * files does not flush the popular ones.
+ * 
+ * @p Cached files can be revalidated periodically, the ones which size or 
+ * last modification time changed are dropped and reloaded on their next 
+ * request, so that deployments need no restart.
+ * 
+ * @pre FileCache cache = new FileCache("www", "max-age=3600;", 1L << 30);
+ *cache.revalidate(Static.loop, 10000); // every 10 seconds
  */
 public class FileCache implements HttpServer.Controller {
     public static final class Entity extends HTTP.Entity {
         private LinkedList<byte[]> _bytes = new LinkedList<byte[]>(); 
+        private long _size = 0;
         public Entity (HTTP.Entity cached) throws Throwable {
             headers = cached.headers;
             _bytes = BytesProducer.tee(cached.body());
+            Iterator<byte[]> bytes = _bytes.iterator();
+            while (bytes.hasNext()) {
+                _size = _size + bytes.next().length;
+            }
+        }
+        /**
+         * @return the number of bytes loaded
+         */
+        public final long size () {
+            return _size;
         }
         public Iterator<byte[]> body () {
             return _bytes.iterator(); 
         }
     }
+    /**
+     * A file mapped once in memory, shared read-only by all responses.
+     * 
+     * @p A buffer maps at most <code>Integer.MAX_VALUE</code> bytes, larger 
+     * files are not mapped.
+     */
+    public static final class Mapped extends HTTP.Entity {
+        private ByteBuffer _mapped;
+        public Mapped (HTTP.FileEntity file) throws Throwable {
+            headers = file.headers;
+            FileChannel channel = (
+                new FileInputStream(file.absolutePath)
+                ).getChannel();
+            try {
+                _mapped = channel.map(
+                    FileChannel.MapMode.READ_ONLY, 0, channel.size()
+                    );
+            } finally {
+                channel.close();
+            }
+        }
+        /**
+         * @return a read-only view of the mapped file
+         */
+        public final ByteBuffer slice () {
+            return _mapped.duplicate();
+        }
+        public Iterator<byte[]> body () {
+            LinkedList<byte[]> bytes = new LinkedList<byte[]>();
+            SliceProducer producer = new SliceProducer(slice());
+            byte[] data = producer.more();
+            while (data != null) {
+                bytes.add(data);
+                data = producer.more();
+            }
+            return bytes.iterator(); 
+        }
+    }
+    protected static final class Entry {
+        protected String _key;
+        protected File _file;
+        protected HTTP.Entity _entity;
+        protected long _size;
+        protected long _modified;
+        protected Entry (String key, File file) {
+            _key = key;
+            _file = file;
+            _size = file.length();
+            _modified = file.lastModified();
+        }
+    }
+    /**
+     * A count-min sketch of recent requests, with four counters per key 
+     * which are all halved after a sample of requests, so that estimates 
+     * favour recent frequencies.
+     */
+    protected static final class Sketch {
+        private static final int[] _SEEDS = new int[]{
+            0x97cb3127, 0xb0cd12f3, 0xc60d8d5b, 0xd1a6e39d
+            };
+        private int[] _counters;
+        private int _mask;
+        private int _sample;
+        private int _count = 0;
+        protected Sketch (int width) {
+            _counters = new int[width * 4];
+            _mask = width - 1;
+            _sample = width * 10;
+        }
+        private final int _index (int hash, int row) {
+            int h = (hash + _SEEDS[row]) * _SEEDS[row];
+            h = h ^ (h >>> 16);
+            return row * (_mask + 1) + (h & _mask);
+        }
+        protected final void increment (String key) {
+            int hash = key.hashCode();
+            for (int row = 0; row < 4; row++) {
+                _counters[_index(hash, row)]++;
+            }
+            if (++_count == _sample) {
+                for (int i = 0; i < _counters.length; i++) {
+                    _counters[i] = _counters[i] >>> 1;
+                }
+                _count = _count >>> 1;
+            }
+        }
+        protected final int frequency (String key) {
+            int hash = key.hashCode();
+            int frequency = Integer.MAX_VALUE;
+            for (int row = 0; row < 4; row++) {
+                frequency = Math.min(frequency, _counters[_index(hash, row)]);
+            }
+            return frequency;
+        }
+    }
     protected String _path;
     protected String _root;
-    protected HashMap<String,HTTP.Entity> _cache;
     protected String _cacheControl;
+    protected boolean _map = false;
+    protected long _budget = Long.MAX_VALUE;
+    protected long _windowBudget;
+    protected long _windowBytes = 0;
+    protected long _mainBytes = 0;
+    protected LinkedHashMap<String,Entry> _window = 
+        new LinkedHashMap<String,Entry>(16, 0.75f, true);
+    protected LinkedHashMap<String,Entry> _main = 
+        new LinkedHashMap<String,Entry>(16, 0.75f, true);
+    protected Sketch _sketch = new Sketch(8192);
+    protected long _hits = 0;
+    protected long _misses = 0;
     public FileCache() 
     throws Throwable {
         _new(".", "max-age=3600;");
@@ -39,40 +185,228 @@ public class FileCache implements HttpServer.Controller {
     throws Throwable {
         _new(path, cacheControl);
     }
+    /**
+     * Map files in memory up to a budget, instead of loading them.
+     * 
+     * @param path of the root directory
+     * @param cacheControl header value
+     * @param budget of bytes mapped
+     * @throws Throwable
+     */
+    public FileCache(String path, String cacheControl, long budget) 
+    throws Throwable {
+        this(path, cacheControl, budget, true);
+    }
+    /**
+     * Map or load files up to a budget.
+     * 
+     * @param path of the root directory
+     * @param cacheControl header value
+     * @param budget of bytes cached
+     * @param map files in memory or load them on the heap
+     * @throws Throwable
+     */
+    public FileCache(String path, String cacheControl, long budget, boolean map) 
+    throws Throwable {
+        _budget = budget;
+        _map = map;
+        _new(path, cacheControl);
+    }
     protected final void _new (String path, String cacheControl) 
     throws Throwable {
-        // load entities in the cache, set content-type, Etag and last-modified
         _root = (new File(path)).getAbsolutePath();
         _cacheControl = cacheControl;
-        _cache = new HashMap<String, HTTP.Entity>();
-        HTTP.FileEntity entity;
-        String key;
-        int rootLength = _root.length();
-        Iterator<File> files = SIO.glob(_root, "^[^.].*$").iterator();
-        while (files.hasNext()) {
-            entity = new HTTP.FileEntity(files.next());
-            key = entity.absolutePath.substring(rootLength).replace('\\', '/');
-            _cache.put(key, new Entity(entity));
+        _windowBudget = Math.max(_budget / 100, 1);
+    }
+    /**
+     * @return the number of bytes cached
+     */
+    public final synchronized long size () {
+        return _windowBytes + _mainBytes;
+    }
+    /**
+     * @return the number of requests served from the cache
+     */
+    public final synchronized long hits () {
+        return _hits;
+    }
+    /**
+     * @return the number of requests that loaded or streamed a file
+     */
+    public final synchronized long misses () {
+        return _misses;
+    }
+    /**
+     * Revalidate the files cached periodically in a loop.
+     * 
+     * @param loop to schedule revalidations in
+     * @param period in milliseconds
+     * @return the scheduled revalidation, to cancel
+     */
+    public final Scheduled revalidate (final Loop loop, final int period) {
+        return loop.timeout(period, new Fun () {
+            public final Object apply (Object when) {
+                revalidate();
+                return Long.valueOf(loop.now() + period);
+            }
+        });
+    }
+    /**
+     * Drop the files cached which size or last modification time changed 
+     * or that were deleted, checking them outside of the cache's lock.
+     */
+    public final void revalidate () {
+        ArrayList<Entry> entries;
+        synchronized (this) {
+            entries = new ArrayList<Entry>(_window.size() + _main.size());
+            entries.addAll(_window.values());
+            entries.addAll(_main.values());
+        }
+        Entry entry;
+        for (int i = 0, n = entries.size(); i < n; i++) {
+            entry = entries.get(i);
+            if (
+                entry._file.isFile() &&
+                entry._file.length() == entry._size && 
+                entry._file.lastModified() == entry._modified
+                ) {
+                continue;
+            }
+            synchronized (this) {
+                if (_window.get(entry._key) == entry) {
+                    _window.remove(entry._key);
+                    _windowBytes = _windowBytes - entry._size;
+                } else if (_main.get(entry._key) == entry) {
+                    _main.remove(entry._key);
+                    _mainBytes = _mainBytes - entry._size;
+                }
+            }
+        }
+    }
+    /**
+     * Get a cached file's entry and count the request.
+     */
+    protected final synchronized Entry _get (String key) {
+        _sketch.increment(key);
+        Entry entry = _window.get(key);
+        if (entry == null) {
+            entry = _main.get(key);
+        }
+        if (entry == null) {
+            _misses++;
+        } else {
+            _hits++;
+        }
+        return entry;
+    }
+    /**
+     * Cache a loaded file's entry in the window, moving the entries it 
+     * evicts to the main cache if they are requested more frequently than 
+     * the ones they would evict there.
+     * 
+     * @p Entries larger than the window are candidates for the main cache
+     * right away, so that the bytes cached never exceed the budget.
+     */
+    protected final synchronized Entry _put (Entry entry) {
+        Entry cached = _window.get(entry._key);
+        if (cached == null) {
+            cached = _main.get(entry._key);
+        }
+        if (cached != null) {
+            return cached; // loaded concurrently
+        }
+        if (entry._size > _windowBudget) {
+            _admit(entry);
+            return entry;
+        }
+        _window.put(entry._key, entry);
+        _windowBytes = _windowBytes + entry._size;
+        Iterator<Entry> eldest;
+        Entry candidate;
+        while (_windowBytes > _windowBudget) {
+            eldest = _window.values().iterator();
+            candidate = eldest.next();
+            eldest.remove();
+            _windowBytes = _windowBytes - candidate._size;
+            _admit(candidate);
         }
+        return entry;
+    }
+    private final void _admit (Entry candidate) {
+        long mainBudget = _budget - _windowBudget;
+        if (candidate._size > mainBudget) {
+            return;
+        }
+        int frequency = _sketch.frequency(candidate._key);
+        Iterator<Entry> eldest;
+        Entry victim;
+        while (_mainBytes + candidate._size > mainBudget) {
+            eldest = _main.values().iterator();
+            victim = eldest.next();
+            if (_sketch.frequency(victim._key) >= frequency) {
+                return; // not admitted
+            }
+            eldest.remove();
+            _mainBytes = _mainBytes - victim._size;
+        }
+        _main.put(candidate._key, candidate);
+        _mainBytes = _mainBytes + candidate._size;
+    }
+    /**
+     * Resolve a request path to a visible file under the root, or return
+     * <code>null</code>.
+     */
+    protected final File _resolve (String path) {
+        if (path.indexOf("/.") > -1 || path.indexOf('\\') > -1) {
+            return null; // hidden, parent or Windows paths
+        }
+        File file = new File(_root + path);
+        if (file.isFile() && !file.isHidden()) {
+            return file;
+        }
+        return null;
+    }
+    protected final Producer _body (Entry entry) throws Throwable {
+        if (entry._entity instanceof Mapped) {
+            return new SliceProducer(((Mapped) entry._entity).slice());
+        } else if (entry._entity instanceof Entity) {
+            Entity entity = (Entity) entry._entity;
+            return new BytesProducer(entity.body(), entity.size());
+        }
+        return new FileProducer(entry._file);
     }
     public final boolean handleRequest(HttpServer.Actor http) 
     throws Throwable {
         String key = http.uri().getPath();
-        HTTP.Entity entity = _cache.get(key);
-        if (entity == null) {
-            http.error(404); // Not Found
-        } else {
-            String method = http.method();
-            if (method.equals("GET")) {
-                http.set("Cache-control", _cacheControl);
-                http.reply(200, entity.headers, new BytesProducer(entity.body())); 
-            } else if (method.equals("HEAD")) {
-                http.set("Cache-control", _cacheControl);
-                http.reply(200, entity.headers);
+        Entry entry = _get(key);
+        if (entry == null) {
+            File file = _resolve(key);
+            if (file == null) {
+                http.error(404); // Not Found
+                return false;
+            }
+            entry = new Entry(key, file);
+            HTTP.FileEntity entity = new HTTP.FileEntity(file);
+            if (
+                entry._size > _budget - _windowBudget ||
+                (_map && entry._size > Integer.MAX_VALUE)
+                ) {
+                entry._entity = entity; // too large, sent from the file system
             } else {
-                http.error(501); // Not implemented
+                entry._entity = (_map) ? new Mapped(entity): new Entity(entity);
+                entry = _put(entry);
             }
         }
+        String method = http.method();
+        if (method.equals("GET")) {
+            http.set("Cache-control", _cacheControl);
+            http.reply(200, entry._entity.headers, _body(entry)); 
+        } else if (method.equals("HEAD")) {
+            http.set("Cache-control", _cacheControl);
+            http.reply(200, entry._entity.headers);
+        } else {
+            http.error(501); // Not implemented
+        }
         return false;
     }
     public final void handleBody(HttpServer.Actor http) {
@@ -0,0 +1,439 @@
+/*  Copyright (C) 2007 Laurent A.V. Szyster
+ *
+ *  This library is free software; you can redistribute it and/or modify
+ *  it under the terms of version 2 of the GNU General Public License as
+ *  published by the Free Software Foundation.
+ *  
+ *   http://www.gnu.org/copyleft/gpl.html
+ *  
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *  
+ *  You should have received a copy of the GNU General Public License
+ *  along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ *  USA
+ *  
+ */
+
+package org.async.web;
+
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+
+/**
+ * An HTTP request head, parsed incrementally as its bytes are appended.
+ * 
+ * @p The parser is a state machine that records the offsets of the request 
+ * line's method, URI and protocol and of each header's name and value, 
+ * without decoding them. Well-known methods, protocols and header names 
+ * are matched to the interned constants of this class, header values are 
+ * decoded only when they are accessed.
+ * 
+ * @pre HttpHead head = new HttpHead();
+ *head.append(slice); // ... as many slices as read
+ *if (head.end()) {
+ *    String host = head.get(HttpHead.HOST);
+ *}
+ * 
+ * @p Header names are compared without case, continuation lines are folded
+ * in the previous value and repeated headers are joined by commas.
+ */
+public final class HttpHead {
+    public static final String GET = "GET";
+    public static final String HEAD = "HEAD";
+    public static final String POST = "POST";
+    public static final String PUT = "PUT";
+    public static final String DELETE = "DELETE";
+    public static final String OPTIONS = "OPTIONS";
+    public static final String HTTP_1_0 = "HTTP/1.0";
+    public static final String HTTP_1_1 = "HTTP/1.1";
+    public static final String HOST = "host";
+    public static final String CONNECTION = "connection";
+    public static final String CONTENT_LENGTH = "content-length";
+    public static final String CONTENT_TYPE = "content-type";
+    public static final String TRANSFER_ENCODING = "transfer-encoding";
+    public static final String COOKIE = "cookie";
+    public static final String EXPECT = "expect";
+    public static final String ACCEPT = "accept";
+    public static final String ACCEPT_ENCODING = "accept-encoding";
+    public static final String ACCEPT_LANGUAGE = "accept-language";
+    public static final String AUTHORIZATION = "authorization";
+    public static final String IF_MODIFIED_SINCE = "if-modified-since";
+    public static final String IF_NONE_MATCH = "if-none-match";
+    public static final String REFERER = "referer";
+    public static final String USER_AGENT = "user-agent";
+    private static final String[] _METHODS = new String[]{
+        GET, HEAD, POST, PUT, DELETE, OPTIONS
+    };
+    private static final String[] _PROTOCOLS = new String[]{
+        HTTP_1_1, HTTP_1_0
+    };
+    private static final String[] _NAMES = new String[]{
+        HOST, CONNECTION, CONTENT_LENGTH, CONTENT_TYPE, TRANSFER_ENCODING, 
+        COOKIE, EXPECT, ACCEPT, ACCEPT_ENCODING, ACCEPT_LANGUAGE, 
+        AUTHORIZATION, IF_MODIFIED_SINCE, IF_NONE_MATCH, REFERER, USER_AGENT
+    };
+    private static final byte _CR = 13;
+    private static final byte _LF = 10;
+    private static final byte _SP = 32;
+    private static final byte _HT = 9;
+    private static final int _START = 0;
+    private static final int _METHOD = 1;
+    private static final int _BEFORE_URI = 2;
+    private static final int _URI = 3;
+    private static final int _BEFORE_PROTOCOL = 4;
+    private static final int _PROTOCOL = 5;
+    private static final int _EOL = 6;
+    private static final int _LINE = 7;
+    private static final int _NAME = 8;
+    private static final int _BEFORE_VALUE = 9;
+    private static final int _VALUE = 10;
+    private byte[] _bytes = null;
+    private int _length = 0;
+    private int _state = _START;
+    private int _methodStart = -1, _methodEnd = -1;
+    private int _uriStart = -1, _uriEnd = -1;
+    private int _protocolStart = -1, _protocolEnd = -1;
+    private int _nameStart;
+    private int[] _offsets = null; // name start, name end, value start and end
+    private String[] _names = null;
+    private boolean[] _folded = null;
+    private int _count = 0;
+    private String _method = null;
+    private String _uri = null;
+    private String _protocol = null;
+    /**
+     * Append the remaining bytes of a slice to this head and parse them.
+     * 
+     * @param slice of the request head
+     */
+    public final void append (ByteBuffer slice) {
+        int length = slice.remaining();
+        if (_bytes == null) {
+            _bytes = new byte[Math.max(length, 256)];
+        } else if (_length + length > _bytes.length) {
+            byte[] bytes = new byte[Math.max(
+                _bytes.length * 2, _length + length
+                )];
+            System.arraycopy(_bytes, 0, bytes, 0, _length);
+            _bytes = bytes;
+        }
+        slice.get(_bytes, _length, length);
+        int from = _length;
+        _length = _length + length;
+        _parse(from, _length);
+    }
+    /**
+     * End the head's last line.
+     * 
+     * @return true if a request line was parsed
+     */
+    public final boolean end () {
+        _eol(_length);
+        _state = _EOL;
+        return _methodEnd > _methodStart;
+    }
+    /**
+     * @return the number of bytes appended
+     */
+    public final int length () {
+        return _length;
+    }
+    /**
+     * @return the request method, upper case
+     */
+    public final String method () {
+        if (_method == null) {
+            _method = _intern(_METHODS, _methodStart, _methodEnd, true);
+            if (_method == null) {
+                _method = _decode(_methodStart, _methodEnd).toUpperCase();
+            }
+        }
+        return _method;
+    }
+    /**
+     * @return the request URI, "/" if none was sent
+     */
+    public final String uri () {
+        if (_uri == null) {
+            if (_uriEnd > _uriStart) {
+                _uri = _decode(_uriStart, _uriEnd);
+            } else {
+                _uri = "/";
+            }
+        }
+        return _uri;
+    }
+    /**
+     * @return the raw path of an origin URI, or <code>null</code> for 
+     * other forms of URI
+     */
+    public final String path () {
+        if (_uriEnd > _uriStart && _bytes[_uriStart] == '/') {
+            int end = _uriStart;
+            byte b;
+            while (end < _uriEnd) {
+                b = _bytes[end];
+                if (b == '?' || b == '#') {
+                    break;
+                }
+                end++;
+            }
+            if (end == _uriEnd) {
+                return uri();
+            }
+            return _decode(_uriStart, end);
+        } else if (_uriEnd == _uriStart) {
+            return "/";
+        }
+        return null;
+    }
+    /**
+     * @return the request protocol, upper case, HTTP/0.9 if none was sent
+     */
+    public final String protocol () {
+        if (_protocol == null) {
+            if (_protocolEnd > _protocolStart) {
+                _protocol = _intern(
+                    _PROTOCOLS, _protocolStart, _protocolEnd, true
+                    );
+                if (_protocol == null) {
+                    _protocol = _decode(
+                        _protocolStart, _protocolEnd
+                        ).toUpperCase();
+                }
+            } else {
+                _protocol = "HTTP/0.9";
+            }
+        }
+        return _protocol;
+    }
+    /**
+     * @return the number of headers parsed
+     */
+    public final int size () {
+        return _count;
+    }
+    /**
+     * @param index of a header
+     * @return the header's name, lower case
+     */
+    public final String name (int index) {
+        String name = _names[index];
+        if (name == null) {
+            int at = index * 4;
+            name = _decode(_offsets[at], _offsets[at + 1]).toLowerCase();
+            _names[index] = name;
+        }
+        return name;
+    }
+    /**
+     * @param index of a header
+     * @return the header's value
+     */
+    public final String value (int index) {
+        int at = index * 4;
+        String value = _decode(_offsets[at + 2], _offsets[at + 3]);
+        if (_folded[index]) {
+            value = value.replaceAll("\r?\n[ \t]+", " ");
+        }
+        return value;
+    }
+    /**
+     * Get the value of a header, or join the values of repeated headers. 
+     * 
+     * @param name of the header, lower case
+     * @return the header's value or <code>null</code>
+     */
+    public final String get (String name) {
+        String value = null;
+        for (int i = 0; i < _count; i++) {
+            if (_names[i] == null ? _matches(i, name): _names[i].equals(name)) {
+                if (value == null) {
+                    value = value(i);
+                } else {
+                    value = value + ", " + value(i);
+                }
+            }
+        }
+        return value;
+    }
+    private final void _parse (int from, int to) {
+        byte b;
+        for (int i = from; i < to; i++) {
+            b = _bytes[i];
+            if (b == _CR || b == _LF) {
+                if (_state == _START) {
+                    continue; // leading empty lines
+                }
+                _eol(i);
+                _state = (b == _LF) ? _LINE: _EOL;
+                continue;
+            }
+            switch (_state) {
+            case _START:
+                _methodStart = i;
+                _state = _METHOD;
+                break;
+            case _METHOD:
+                if (b == _SP) {
+                    _methodEnd = i;
+                    _state = _BEFORE_URI;
+                }
+                break;
+            case _BEFORE_URI:
+                if (b != _SP) {
+                    _uriStart = i;
+                    _state = _URI;
+                }
+                break;
+            case _URI:
+                if (b == _SP) {
+                    _uriEnd = i;
+                    _state = _BEFORE_PROTOCOL;
+                }
+                break;
+            case _BEFORE_PROTOCOL:
+                if (b != _SP) {
+                    _protocolStart = i;
+                    _state = _PROTOCOL;
+                }
+                break;
+            case _PROTOCOL:
+                if (b == _SP) {
+                    _protocolEnd = i;
+                    _state = _EOL;
+                }
+                break;
+            case _LINE:
+                if (b == _SP || b == _HT) {
+                    if (_count > 0) {
+                        _folded[_count - 1] = true;
+                        _state = _VALUE; // continue the previous value
+                    } else {
+                        _state = _EOL;
+                    }
+                } else {
+                    _nameStart = i;
+                    _state = _NAME;
+                }
+                break;
+            case _NAME:
+                if (b == ':') {
+                    _header(_nameStart, i);
+                    _state = _BEFORE_VALUE;
+                }
+                break;
+            case _BEFORE_VALUE:
+                if (b != _SP && b != _HT) {
+                    _offsets[(_count - 1) * 4 + 2] = i;
+                    _state = _VALUE;
+                }
+                break;
+            }
+        }
+    }
+    private final void _eol (int i) {
+        switch (_state) {
+        case _METHOD:
+            _methodEnd = i;
+            break;
+        case _URI:
+            _uriEnd = i;
+            break;
+        case _PROTOCOL:
+            _protocolEnd = i;
+            break;
+        case _BEFORE_VALUE:
+            _offsets[(_count - 1) * 4 + 2] = i;
+            _offsets[(_count - 1) * 4 + 3] = i;
+            break;
+        case _VALUE:
+            int start = _offsets[(_count - 1) * 4 + 2];
+            while (i > start && (_bytes[i - 1] == _SP || _bytes[i - 1] == _HT)) {
+                i--;
+            }
+            _offsets[(_count - 1) * 4 + 3] = i;
+            break;
+        }
+    }
+    private final void _header (int start, int end) {
+        if (_offsets == null) {
+            _offsets = new int[32];
+            _names = new String[8];
+            _folded = new boolean[8];
+        } else if (_count == _names.length) {
+            int[] offsets = new int[_offsets.length * 2];
+            System.arraycopy(_offsets, 0, offsets, 0, _offsets.length);
+            _offsets = offsets;
+            String[] names = new String[_names.length * 2];
+            System.arraycopy(_names, 0, names, 0, _count);
+            _names = names;
+            boolean[] folded = new boolean[_folded.length * 2];
+            System.arraycopy(_folded, 0, folded, 0, _count);
+            _folded = folded;
+        }
+        int at = _count * 4;
+        _offsets[at] = start;
+        _offsets[at + 1] = end;
+        _names[_count] = _intern(_NAMES, start, end, false);
+        _count++;
+    }
+    private final String _intern (
+        String[] constants, int start, int end, boolean upper
+        ) {
+        String constant;
+        int length = end - start;
+        for (int i = 0; i < constants.length; i++) {
+            constant = constants[i];
+            if (constant.length() == length && _equals(
+                start, constant, upper
+                )) {
+                return constant;
+            }
+        }
+        return null;
+    }
+    private final boolean _matches (int index, String name) {
+        int at = index * 4;
+        return (
+            _offsets[at + 1] - _offsets[at] == name.length() && 
+            _equals(_offsets[at], name, false)
+            );
+    }
+    private final boolean _equals (int start, String constant, boolean upper) {
+        int b;
+        for (int i = 0, n = constant.length(); i < n; i++) {
+            b = _bytes[start + i];
+            if (upper) {
+                if (b >= 'a' && b <= 'z') {
+                    b = b - 32;
+                }
+            } else if (b >= 'A' && b <= 'Z') {
+                b = b + 32;
+            }
+            if (b != constant.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+    private final String _decode (int start, int end) {
+        char[] chars = new char[end - start];
+        byte b;
+        for (int i = start; i < end; i++) {
+            b = _bytes[i];
+            if (b < 0) {
+                try { // not US-ASCII
+                    return new String(_bytes, start, end - start, "UTF-8");
+                } catch (UnsupportedEncodingException e) {
+                    throw new Error(e);
+                }
+            }
+            chars[i - start] = (char) b;
+        }
+        return new String(chars);
+    }
+}
@@ -20,28 +20,44 @@
 package org.async.web;
 
 import org.async.core.Loop;
+import org.async.core.Scheduled;
 import org.async.core.Server;
+import org.async.core.Static;
 import org.async.core.Pipeline;
+import org.async.core.FileRegion;
+import org.async.chat.BufferProducer;
 import org.async.chat.ByteProducer;
 import org.async.chat.ChatDispatcher;
 import org.async.chat.Producer;
+import org.async.chat.RegionProducer;
+import org.async.chat.SizedProducer;
 import org.async.chat.Collector;
+import org.async.chat.SliceCollector;
 import org.protocols.HTTP;
 import org.protocols.JSON;
 import org.simple.Bytes;
+import org.simple.Fun;
 import org.simple.Strings;
 import org.simple.Objects;
 
 import java.util.Iterator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Calendar;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
 import java.io.File;
 import java.net.InetSocketAddress;
 import java.net.URI;
 
 /**
  * An extensible HTTP/1.1 server for high-performance state-full applications.
+ * 
+ * @p Pipelined requests are answered in order, with at most 
+ * <code>pipelining</code> of them in flight per connection: a channel 
+ * stops to read and collect requests until one of its responses is done.
  */
 public class HttpServer extends Server {
 	/**
@@ -55,6 +71,130 @@ public class HttpServer extends Server {
 		"set-cookie",
 		"transfer-encoding"
 		);
+    protected static final byte[] _SERVER_DATE = 
+        "Server: asyncorg\r\nDate: ".getBytes();
+    protected static final byte[] _CONTENT_LENGTH = 
+        "Content-Length: ".getBytes();
+    protected static final byte[] _CHUNKED = 
+        "Transfer-Encoding: chunked\r\n".getBytes();
+    protected static final byte[] _KEEP_ALIVE = 
+        "Connection: keep-alive\r\n".getBytes();
+    protected static final byte[] _CLOSE = 
+        "Connection: close\r\n".getBytes();
+    protected static final byte[] _SET_COOKIE = "Set-Cookie: ".getBytes();
+    protected static final byte[] _COLON = ": ".getBytes();
+    protected static final byte[] _CRLF = Bytes.CRLF;
+    protected static final HashMap<String,byte[]> _STATUS_1_1 = 
+        _statusLines(HttpHead.HTTP_1_1);
+    protected static final HashMap<String,byte[]> _STATUS_1_0 = 
+        _statusLines(HttpHead.HTTP_1_0);
+    private static final HashMap<String,byte[]> _statusLines (
+        String protocol
+        ) {
+        HashMap<String,byte[]> lines = new HashMap<String,byte[]>();
+        Iterator<String> statuses = HTTP.RESPONSES.keySet().iterator();
+        String status;
+        while (statuses.hasNext()) {
+            status = statuses.next();
+            lines.put(status, _statusLine(protocol, status));
+        }
+        return lines;
+    }
+    private static final byte[] _statusLine (String protocol, String status) {
+        return Bytes.encode(
+            protocol + " " + status + " " + HTTP.RESPONSES.get(status) + 
+            Strings.CRLF, "UTF-8"
+            );
+    }
+    /**
+     * Get the pre-encoded status line of a response.
+     * 
+     * @param protocol of the response
+     * @param status code
+     * @return the status line, with its CRLF
+     */
+    public static final byte[] httpStatus (String protocol, String status) {
+        byte[] line = null;
+        if (protocol == HttpHead.HTTP_1_1) {
+            line = _STATUS_1_1.get(status);
+        } else if (protocol == HttpHead.HTTP_1_0) {
+            line = _STATUS_1_0.get(status);
+        }
+        if (line == null) {
+            line = _statusLine(protocol, status);
+        }
+        return line;
+    }
+    /**
+     * A growable byte buffer to write a response head into, reused by a
+     * channel for all its responses.
+     */
+    public static final class HeadBuffer {
+        private byte[] _bytes = new byte[512];
+        private int _length = 0;
+        public final void reset () {
+            _length = 0;
+        }
+        public final int length () {
+            return _length;
+        }
+        private final void _grow (int length) {
+            if (_length + length > _bytes.length) {
+                byte[] bytes = new byte[Math.max(
+                    _bytes.length * 2, _length + length
+                    )];
+                System.arraycopy(_bytes, 0, bytes, 0, _length);
+                _bytes = bytes;
+            }
+        }
+        public final HeadBuffer write (byte[] bytes) {
+            _grow(bytes.length);
+            System.arraycopy(bytes, 0, _bytes, _length, bytes.length);
+            _length = _length + bytes.length;
+            return this;
+        }
+        /**
+         * Write a string's US-ASCII characters one byte each, or its UTF-8 
+         * bytes if it has other characters.
+         */
+        public final HeadBuffer write (String string) {
+            int n = string.length();
+            _grow(n);
+            char c;
+            for (int i = 0; i < n; i++) {
+                c = string.charAt(i);
+                if (c > 127) {
+                    return write(Bytes.encode(string.substring(i), "UTF-8"));
+                }
+                _bytes[_length++] = (byte) c;
+            }
+            return this;
+        }
+        public final HeadBuffer write (long number) {
+            if (number < 0) {
+                return write(Long.toString(number));
+            }
+            int digits = 1;
+            for (long n = number / 10; n > 0; n = n / 10) {
+                digits++;
+            }
+            _grow(digits);
+            for (int i = _length + digits - 1; i >= _length; i--) {
+                _bytes[i] = (byte) ('0' + (number % 10));
+                number = number / 10;
+            }
+            _length = _length + digits;
+            return this;
+        }
+        /**
+         * @return a copy of the bytes written
+         */
+        public final byte[] toBytes () {
+            byte[] bytes = new byte[_length];
+            System.arraycopy(_bytes, 0, bytes, 0, _length);
+            return bytes;
+        }
+    }
     /**
      * An Actor holding one HTTP/1.1 resource state transition with support
      * for IRTD2 and JSON. It can be applied to handle simple HTTP/1.0 
@@ -70,22 +210,31 @@ public class HttpServer extends Server {
      * 
      * @p Note that <code>Actor</code> is a <code>Producer</code> and can
      * therefore be 
+     * 
+     * @p A body which size is known, like a <code>FileProducer</code>, a 
+     * <code>SliceProducer</code> or the bytes replied, is sent with its 
+     * Content-Length. Other bodies are chunked for HTTP/1.1, the chunks' 
+     * sizes framing the bytes produced without copying them.
      */
-    public static class Actor implements Producer {
+    public static class Actor implements RegionProducer, BufferProducer {
         private Producer _producer = null;
         protected Channel _channel;
         protected long _when;
         protected String _status = null;
-        protected String _method = "GET";
+        protected HttpHead _head;
+        protected String _method;
         protected URI _uri = null;
-        protected String _protocol = "HTTP/0.9";
+        protected String _protocol;
         protected String _host;
-        protected HashMap<String,String> _requestHeaders = new HashMap();
+        protected HashMap<String,String> _requestHeaders = null;
         protected HashMap<String, String> _requestCookies = null;
         protected Collector _requestBody = null;
         protected HashMap<String,String> _responseHeaders = new HashMap();
         protected Producer _responseBody = null;
         protected HashMap<String, String> _responseCookies = null;
+        protected long _contentLength = -1;
+        protected boolean _chunked = false;
+        protected byte[] _connection = null;
         protected long _objectSize = 0;
         public Controller handler;
         /**
@@ -127,25 +276,13 @@ public class HttpServer extends Server {
          */
         public JSON.Object state = new JSON.Object();
         //
-        protected Actor (
-            Channel channel, String request, String buffer, int pos
-            ) throws Throwable {
+        protected Actor (Channel channel, HttpHead head) {
             _channel = channel;
-            _when = _channel._server._loop.now();
-            Iterator parts = Strings.split(request, ' ');
-            if (parts.hasNext()) {
-                _method = ((String) parts.next()).toUpperCase();
-                if (parts.hasNext()) {
-                    _uri = new URI((String) parts.next());
-                    if (parts.hasNext()) {
-                        _protocol = ((String) parts.next()).toUpperCase();
-                    }
-                } else {
-                    _uri = new URI("/");
-                }
-            }
-            HTTP.update(_requestHeaders, buffer, pos);
-            _host = _requestHeaders.get("host");
+            _when = _channel.loop().now();
+            _head = head;
+            _method = head.method();
+            _protocol = head.protocol();
+            _host = head.get(HttpHead.HOST);
             if (_host == null) {
                 _host = _channel._server._host;
             }
@@ -154,7 +291,7 @@ public class HttpServer extends Server {
             return (
                 _channel.toString()
                 + " " + _method 
-                + " " + _uri
+                + " " + _head.uri()
                 + " " + _protocol 
                 + " " + _status
                 );
@@ -168,17 +305,42 @@ public class HttpServer extends Server {
         public final String method() {
             return _method;
         }
+        /**
+         * @return the request URI, parsed on demand
+         * @throws IllegalArgumentException if the URI is invalid
+         */
         public final URI uri() {
+            if (_uri == null) {
+                _uri = URI.create(_head.uri());
+            }
             return _uri;
         }
+        /**
+         * @return the raw path requested, without parsing an origin URI
+         */
+        public final String path() {
+            String path = _head.path();
+            if (path == null) {
+                path = uri().getRawPath();
+            }
+            return path;
+        }
         public final String protocol() {
             return _protocol;
         }
+        /**
+         * @param name of a request header or trailer, lower case
+         * @return its value or <code>null</code>
+         */
         public final String get(String name) {
-            return _requestHeaders.get(name);
+            String value = _head.get(name);
+            if (value == null && _requestHeaders != null) {
+                value = _requestHeaders.get(name); // chunked trailers
+            }
+            return value;
         }
         public final String get(String name, String defaultValue) {
-            String value = _requestHeaders.get(name);
+            String value = get(name);
             if (value == null) {
                 return defaultValue;
             } else {
@@ -187,7 +349,7 @@ public class HttpServer extends Server {
         };
         public final String getCookie(String name) {
             if (_requestCookies == null) {
-                _requestCookies = HTTP.cookies(get("cookie", null));
+                _requestCookies = HTTP.cookies(get(HttpHead.COOKIE, null));
             }
             return _requestCookies.get(name);
         }
@@ -209,19 +371,40 @@ public class HttpServer extends Server {
         public final String status() {
             return _status;
         }
+        /**
+         * Suspend this actor until it is completed or its server's deadline.
+         * 
+         * @return the completion handle, usable from any thread
+         */
+        public final Completion suspend () {
+            return suspend(_channel._server.deadline);
+        }
+        /**
+         * Suspend this actor until it is completed from any thread, or time
+         * it out with a 504 error.
+         * 
+         * @param timeout in milliseconds
+         * @return the completion handle, usable from any thread
+         */
+        public final Completion suspend (int timeout) {
+            if (_status != null) {
+                throw new Error("HTTP response already replied");
+            }
+            return _channel._suspend(this, timeout);
+        }
         public final void error (int status) {
             _status = Integer.toString(status);
-            byte[] body = HTTP.RESPONSES.get(_status).getBytes();
-            _responseHeaders.put(
-                "Content-Length", Integer.toString(body.length)
+            _responseBody = new ByteProducer(
+                HTTP.RESPONSES.get(_status).getBytes()
                 );
-            _responseBody = new ByteProducer(body);
         	handler = null;
+        	_channel.interest();
         }
         public final void reply (int status, Producer body) {
             _status = Integer.toString(status);
             _responseBody = body;
         	handler = null;
+        	_channel.interest();
         }
         public final void reply (
             int status, HashMap<String, String> headers
@@ -229,6 +412,7 @@ public class HttpServer extends Server {
             _status = Integer.toString(status);
             _responseHeaders.putAll(headers);
         	handler = null;
+        	_channel.interest();
         }
         public final void reply (
             int status, HashMap<String, String> headers, Producer body
@@ -237,16 +421,13 @@ public class HttpServer extends Server {
             _responseHeaders.putAll(headers);
             _responseBody = body;
         	handler = null;
+        	_channel.interest();
         }
         public final void reply (int status, byte[] body) {
             _status = Integer.toString(status);
-            if (_protocol != "HTTP/1.1") {
-                _responseHeaders.put(
-                    "Content-Length", Integer.toString(body.length)
-                    );
-            }
             _responseBody = new ByteProducer(body);
         	handler = null;
+        	_channel.interest();
         }
         public final void reply (int status, String body, String encoding) {
             reply(status, Bytes.encode(body, encoding));
@@ -260,81 +441,135 @@ public class HttpServer extends Server {
                 _producer != null && _producer.stalled()
                 ));
         }
+        public final FileRegion region() throws Throwable {
+            if (_producer instanceof RegionProducer) {
+                FileRegion region = ((RegionProducer) _producer).region();
+                if (region != null) {
+                    _objectSize += region.remaining();
+                }
+                return region;
+            }
+            return null;
+        }
+        public final ByteBuffer buffer() throws Throwable {
+            if (_producer instanceof BufferProducer) {
+                ByteBuffer buffer = ((BufferProducer) _producer).buffer();
+                if (buffer != null) {
+                    _objectSize += buffer.remaining();
+                }
+                return buffer;
+            }
+            return null;
+        }
         public final byte[] more() throws Throwable {
             if (_producer == null) {
                 if (_produced) {
-                    _channel._server.httpLog(this);
+                    _done();
                     return null;
                 } else {
                     _produced = true;
                     if (_responseBody != null) {
-                        if (_protocol.equals("HTTP/1.1")) {
-                            _responseHeaders.put("Transfer-Encoding", "chunked");
+                        long size = -1;
+                        if (_responseBody instanceof SizedProducer) {
+                            size = ((SizedProducer) _responseBody).size();
+                        }
+                        if (size > -1) {
+                            _contentLength = size;
+                            _connection = (get(HttpHead.CONNECTION, (
+                                _protocol == HttpHead.HTTP_1_1 ? 
+                                    "keep-alive": ""
+                                )).toLowerCase().equals("keep-alive")) ?
+                                _KEEP_ALIVE: _CLOSE;
+                            _producer = _responseBody;
+                        } else if (_protocol == HttpHead.HTTP_1_1) {
+                            _chunked = true;
                             _producer = new ChunkProducer(_responseBody);
-                            if (get("connection", "keep-alive")
-                                    .toLowerCase().equals("keep-alive")) {
-                                _responseHeaders.put("Connection", "keep-alive");
-                            } else {
-                                _responseHeaders.put("Connection", "close");
-                                _channel.closeWhenDone();
-                            }
+                            _connection = (get(HttpHead.CONNECTION, "keep-alive")
+                                .toLowerCase().equals("keep-alive")) ?
+                                _KEEP_ALIVE: _CLOSE;
                         } else {
-                            if (
-                                _responseHeaders.containsKey("Content-Length") &&
-                                get("connection", "")
+                            _connection = (
+                                _responseHeaders.containsKey("Content-Length") 
+                                && get(HttpHead.CONNECTION, "")
                                     .toLowerCase().equals("keep-alive")
-                                ) {
-                                _responseHeaders.put("Connection", "keep-alive");
-                            } else {
-                                _responseHeaders.put("Connection", "close");
-                                _channel.closeWhenDone();
-                            }
+                                ) ? _KEEP_ALIVE: _CLOSE;
                             _producer = _responseBody;
                         }
-                    }
-                    String name;
-                    StringBuilder sb = new StringBuilder();
-                    sb.append(_protocol);
-                    sb.append(' ');
-                    sb.append(_status);
-                    sb.append(' ');
-                    sb.append(HTTP.RESPONSES.get(_status));
-                    sb.append(Strings.CRLF);
-                    sb.append("Server: asyncorg\r\nDate: ");
-                    sb.append(_channel._server._date);
-                    sb.append(Strings.CRLF);
-                    Iterator names = _responseHeaders.keySet().iterator();
-                    while (names.hasNext()) {
-                        name = (String) names.next();
-                        sb.append(name);
-                        sb.append(": ");
-                        sb.append(_responseHeaders.get(name));
-                        sb.append(Strings.CRLF);
-                    }
-                    if (_responseCookies != null) {
-                        names = _responseCookies.keySet().iterator();
-                        while (names.hasNext()) {
-                            name = (String) names.next();
-                            sb.append("Set-Cookie: ");
-                            sb.append(name);
-                            sb.append("=");
-                            sb.append(_responseCookies.get(name));
-                            sb.append(Strings.CRLF);
+                        if (_connection == _CLOSE) {
+                            _channel.closeWhenDone();
                         }
                     }
-                    sb.append(Strings.CRLF);
-                    return Bytes.encode(sb.toString(), "UTF-8");
+                    return _head(_channel._headBuffer);
                 }
             } else {
                 byte[] data = _producer.more();
                 if (data == null) {
-                    _channel._server.httpLog(this);
+                    _done();
                 } else {
                 	_objectSize += data.length;
                 }
                 return data;
             }
         }
+        /**
+         * Log this response and make room for another in its channel's 
+         * pipelining window.
+         */
+        private final void _done () {
+            _channel._server.httpLog(this);
+            _channel._release();
+        }
+        /**
+         * Write this response's status line and headers, pre-encoded or 
+         * written byte by byte, in a buffer.
+         */
+        private final byte[] _head (HeadBuffer head) {
+            head.reset();
+            head.write(httpStatus(_protocol, _status));
+            head.write(_SERVER_DATE);
+            head.write(_channel._server._dateBytes);
+            if (_chunked) {
+                head.write(_CHUNKED);
+            } else if (_contentLength > -1) {
+                head.write(_CONTENT_LENGTH);
+                head.write(_contentLength);
+                head.write(_CRLF);
+            }
+            if (_connection != null) {
+                head.write(_connection);
+            }
+            String name;
+            Map.Entry<String,String> header;
+            Iterator<Map.Entry<String,String>> headers = 
+                _responseHeaders.entrySet().iterator();
+            while (headers.hasNext()) {
+                header = headers.next();
+                name = header.getKey();
+                if (
+                    (_chunked || _contentLength > -1) && 
+                    name.equalsIgnoreCase("Content-Length")
+                    ) {
+                    continue; // set by the server
+                }
+                head.write(name);
+                head.write(_COLON);
+                head.write(header.getValue());
+                head.write(_CRLF);
+            }
+            if (_responseCookies != null) {
+                headers = _responseCookies.entrySet().iterator();
+                while (headers.hasNext()) {
+                    header = headers.next();
+                    head.write(_SET_COOKIE);
+                    head.write(header.getKey());
+                    head.write("=");
+                    head.write(header.getValue());
+                    head.write(_CRLF);
+                }
+            }
+            head.write(_CRLF);
+            return head.toBytes();
+        }
         public final void collect (Collector body) {
             _requestBody = body;
         }
@@ -344,59 +579,79 @@ public class HttpServer extends Server {
             _channel.pull();
         }
     }
-    public static class Channel extends ChatDispatcher {
+    public static class Channel extends ChatDispatcher 
+    implements SliceCollector {
         protected HttpServer _server;
         protected Actor _http;
         protected Collector _body = null;
-        protected StringBuilder _buffer = new StringBuilder();
+        protected HttpHead _request = null;
+        protected HeadBuffer _headBuffer = new HeadBuffer();
+        protected int _inflight = 0;
+        protected boolean _windowFull = false;
         public Channel (HttpServer server) {
-            super(server._loop, server._bufferSizeIn, server._bufferSizeOut);
+            super(Static.current(), server._bufferSizeIn, server._bufferSizeOut);
             _server = server;
+            _explicit = true; // idle keep-alive channels are not polled
         }
         public final HttpServer server() {
             return _server;
         }
+        /**
+         * @return the loop this channel is dispatched in, which may not be
+         * its server's
+         */
+        public final Loop loop() {
+            return _loop;
+        }
         public Object apply(Object input) throws Throwable {
             return null;
         }
         public final void handleConnect() throws Throwable {
             setTerminator(Bytes.CRLFCRLF);
+            // pipelined responses are written as they are done, do not
+            // hold the last ones until the client acknowledges the first.
+            ((SocketChannel) _channel).socket().setTcpNoDelay(true);
         }
         public final void handleData(byte[] data) throws Throwable {
             if (_body == null) {
-                _buffer.append(Bytes.decode(data, Bytes.UTF8));
+                handleSlice(ByteBuffer.wrap(data));
             } else {
                 _body.handleData(data);
             }
         }
-        public final boolean handleTerminator() throws Throwable {
+        /**
+         * Parse request head bytes as they are collected or pass a body's 
+         * slice to its collector, copied only if it does not collect slices.
+         */
+        public final void handleSlice(ByteBuffer slice) throws Throwable {
             if (_body == null) {
-                String buffer = _buffer.toString();
-                _buffer = new StringBuilder();
-                int lb = buffer.length();
-                int pos = 0;
-                int crlfAt = buffer.indexOf(Strings.CRLF);
-                while (crlfAt == pos) {
-                    pos += 2;
-                    if (pos < lb) {
-                        crlfAt = buffer.indexOf(Strings.CRLF, pos);
-                    } else {
-                        return false; 
-                    }
+                if (_request == null) {
+                    _request = new HttpHead();
                 }
-                String request;
-                if (crlfAt > -1) {
-                    request = buffer.substring(pos, crlfAt);
-                } else if (crlfAt == -1 && lb > 0) {
-                    request = buffer;
-                } else {
-                    return false;
+                _request.append(slice);
+            } else if (_body instanceof SliceCollector) {
+                ((SliceCollector) _body).handleSlice(slice);
+            } else {
+                byte[] data = new byte[slice.remaining()];
+                slice.get(data);
+                _body.handleData(data);
+            }
+        }
+        public final boolean handleTerminator() throws Throwable {
+            if (_body == null) {
+                HttpHead head = _request;
+                _request = null;
+                if (head == null || !head.end()) {
+                    return false; // empty lines
                 }
-                _http = new Actor(this, request, buffer, crlfAt + 2);
+                _http = new Actor(this, head);
                 if (_server.httpContinue(_http)) {
                     return true;
                 }
                 httpContinue ();
+                if (_body == null) {
+                    return _window();
+                }
             } else if (_body.handleTerminator()) {
                 setTerminator(Bytes.CRLFCRLF);
                 _body = null;
@@ -409,11 +664,46 @@ public class HttpServer extends Server {
                     }
                 }
                 _http = null;
+                return _window();
             }
             return false;
         }
+        /**
+         * Schedule a suspended actor's deadline in this channel's loop.
+         */
+        protected final Completion _suspend (Actor http, int timeout) {
+            Completion completion = new Completion(http, _loop);
+            _loop.timeout((long) timeout, completion);
+            return completion;
+        }
+        /**
+         * Stall the collection of pipelined requests while the responses
+         * in flight fill this channel's window.
+         */
+        protected final boolean _window () {
+            _windowFull = (_inflight >= _server.pipelining);
+            return _windowFull;
+        }
+        /**
+         * Resume the collection of pipelined requests stalled by a full 
+         * window when half of the responses in flight are done, to collect
+         * requests in batches rather than one by one.
+         * 
+         * @p Responses are done while this channel produces its output, so
+         * collection resumes in the loop's next run and not in the middle
+         * of a write, where a request that fails to parse would close the 
+         * channel under its own feet.
+         */
+        protected final void _release () {
+            _inflight--;
+            if (_windowFull && _inflight <= _server.pipelining / 2) {
+                _windowFull = false;
+                _loop.defer(new Resume(this));
+            }
+        }
         public final void httpContinue() {
             push(_http);
+            _inflight++;
             if (_http._requestBody == null) {
                 String method = _http._method;
                 if ((
@@ -428,13 +718,14 @@ public class HttpServer extends Server {
             } else {
                 _body = _http._requestBody;
             }
-            String te = _http._requestHeaders.get("transfer-encoding");
+            String te = _http.get(HttpHead.TRANSFER_ENCODING);
             if (te != null && te.toLowerCase().startsWith("chunked")) {
+                _http._requestHeaders = new HashMap<String,String>();
                 _body = new ChunkCollector(
                     this, _body, _http._requestHeaders
                     );
             } else {
-                String cl = _http._requestHeaders.get("content-length");
+                String cl = _http.get(HttpHead.CONTENT_LENGTH);
                 if (cl != null) {
                     setTerminator(Integer.valueOf(cl));
                 }
@@ -453,6 +744,149 @@ public class HttpServer extends Server {
             _server.serverClose(this);
         }
     }
+    /**
+     * The handle to complete a suspended <code>Actor</code> once, from any 
+     * thread, before its deadline.
+     * 
+     * @p A controller suspends the actor it handles to reply later, after 
+     * a call to a database, a resolver or a pool of workers, without 
+     * blocking its loop:
+     * 
+     * @pre public boolean handleRequest (HttpServer.Actor http) {
+     *    final HttpServer.Completion completion = http.suspend(5000);
+     *    workers.execute(new Runnable () {
+     *        public void run () {
+     *            completion.reply(200, compute(), "UTF-8");
+     *        }
+     *    });
+     *    return false;
+     *}
+     * 
+     * @p The reply is defered to the actor's loop, waking it up. If none 
+     * comes before the deadline, the actor replies a 504 error and the 
+     * completions that come later are ignored.
+     */
+    /**
+     * Resume the collection of a channel's pipelined requests, if it is 
+     * still open.
+     */
+    protected static final class Resume implements Fun {
+        private Channel _channel;
+        protected Resume (Channel channel) {
+            _channel = channel;
+        }
+        public final Object apply (Object input) {
+            if (_channel.connected()) {
+                _channel.pull();
+            }
+            return null;
+        }
+    }
+    public static final class Completion extends Scheduled implements Fun {
+        private Actor _http;
+        private Loop _loop;
+        private AtomicBoolean _completed = new AtomicBoolean(false);
+        private boolean _error = false;
+        private int _status;
+        private HashMap<String,String> _headers = null;
+        private Producer _body = null;
+        private Fun _function = null;
+        protected Completion (Actor http, Loop loop) {
+            _http = http;
+            _loop = loop;
+        }
+        /**
+         * @return true if this completion was replied or timed out
+         */
+        public final boolean completed () {
+            return _completed.get();
+        }
+        public final boolean reply (int status, byte[] body) {
+            return reply(status, null, new ByteProducer(body));
+        }
+        public final boolean reply (int status, String body, String encoding) {
+            return reply(status, Bytes.encode(body, encoding));
+        }
+        /**
+         * Reply to the suspended actor in its loop.
+         * 
+         * @param status of the response
+         * @param headers of the response or <code>null</code>
+         * @param body of the response or <code>null</code>
+         * @return false if the actor was already completed
+         */
+        public final boolean reply (
+            int status, HashMap<String,String> headers, Producer body
+            ) {
+            if (_completed.compareAndSet(false, true)) {
+                _status = status;
+                _headers = headers;
+                _body = body;
+                _loop.defer(this);
+                return true;
+            }
+            return false;
+        }
+        public final boolean error (int status) {
+            if (_completed.compareAndSet(false, true)) {
+                _status = status;
+                _error = true;
+                _loop.defer(this);
+                return true;
+            }
+            return false;
+        }
+        /**
+         * Apply a function to the suspended actor in its loop, to set its
+         * response headers and reply.
+         * 
+         * @param function applied to the actor
+         * @return false if the actor was already completed
+         */
+        public final boolean resume (Fun function) {
+            if (_completed.compareAndSet(false, true)) {
+                _function = function;
+                _loop.defer(this);
+                return true;
+            }
+            return false;
+        }
+        /**
+         * Complete the actor, in its loop.
+         */
+        public final Object apply (Object input) {
+            cancel();
+            if (_http._channel.connected()) {
+                try {
+                    if (_function != null) {
+                        _function.apply(_http);
+                    } else if (_error) {
+                        _http.error(_status);
+                    } else if (_headers == null) {
+                        _http.reply(_status, _body);
+                    } else {
+                        _http.reply(_status, _headers, _body);
+                    }
+                } catch (Throwable e) {
+                    _http._channel.log(e);
+                    _http.error(500); // Server Error
+                }
+            }
+            return null;
+        }
+        /**
+         * Time out the actor at its deadline, if it was not completed.
+         */
+        public final long apply (Loop loop) {
+            if (
+                _completed.compareAndSet(false, true) && 
+                _http._channel.connected()
+                ) {
+                _http.error(504); // Gateway Timeout
+            }
+            return -1;
+        }
+    }
     public interface Controller {
         public boolean handleRequest(Actor http) throws Throwable;
         public void handleBody(Actor http) throws Throwable;
@@ -461,10 +895,20 @@ public class HttpServer extends Server {
     protected int _bufferSizeOut = 16384;
     protected String _host;
     protected Calendar _calendar = Calendar.getInstance();
-    protected String _date;
+    protected volatile String _date;
+    protected volatile byte[] _dateBytes;
     protected File _root;
     protected HashMap<String,Controller> _controllers = new HashMap();
     public boolean test = false;
+    /**
+     * The maximum number of pipelined requests in flight per channel, the 
+     * ones queued or being answered, before the channel stops to read.
+     */
+    public int pipelining = 16;
+    /**
+     * The default deadline of suspended actors, in milliseconds.
+     */
+    public int deadline = 30000;
     public HttpServer (String root) {
         super();
         _root = new File(root);
@@ -479,12 +923,20 @@ public class HttpServer extends Server {
     public void serverWakeUp() {
         super.serverWakeUp();
         _calendar.setTimeInMillis(_loop.now());
-        _date = HTTP.date(_calendar);
+        _httpDate();
     }
     public void serverMaintain() {
         super.serverMaintain();
         _calendar.add(Calendar.MILLISECOND, precision);
-        _date = HTTP.date(_calendar);
+        _httpDate();
+    }
+    /**
+     * Format the date once per maintenance and encode its header value.
+     */
+    protected final void _httpDate () {
+        String date = HTTP.date(_calendar);
+        _dateBytes = Bytes.encode(date + Strings.CRLF, "UTF-8");
+        _date = date;
     }
     public final String httpHost () {
         return _host;
@@ -523,7 +975,7 @@ public class HttpServer extends Server {
     }
     protected boolean httpContinue(Actor http) {
         try { // to route to a handler, maybe continue ...
-            String path = http._uri.getRawPath();
+            String path = http.path();
             String route = http._host + path;
             Controller handler = _controllers.get(route); 
             if (handler != null) { 
@@ -558,12 +1010,12 @@ public class HttpServer extends Server {
         return false;
     }
     public void httpLog(Actor http) { // TODO: replace with a Fun ?
-        _loop.log((
+        http._channel.loop().log((
             http._channel.toString()
             + " - " + ((http.identity == null) ? "-" : http.identity)
             + " [" + _date 
             + "] \"" + http._method 
-            + " " + http._uri
+            + " " + http._head.uri()
             + " " + http._protocol 
             + "\" " + http._status
             + " " + http._objectSize
@@ -0,0 +1,77 @@
+/*  Copyright (C) 2007 Laurent A.V. Szyster
+ *
+ *  This library is free software; you can redistribute it and/or modify
+ *  it under the terms of version 2 of the GNU General Public License as
+ *  published by the Free Software Foundation.
+ *  
+ *   http://www.gnu.org/copyleft/gpl.html
+ *  
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *  
+ *  You should have received a copy of the GNU General Public License
+ *  along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ *  USA
+ *  
+ */
+
+package org.async.web;
+
+import org.async.core.Loop;
+import org.async.core.LoopGroup;
+import org.async.core.Instruments;
+
+/**
+ * A controller that serves a JSON array of snapshots of the instruments of
+ * one or more loops, <code>null</code> for the loops not instrumented.
+ * 
+ * @h3 Synopsis
+ * 
+ * @pre Static.loop.instrument();
+ *server.httpRoute(host + "/monitor", new Monitor(Static.loop));
+ * 
+ * @p The instruments of loops dispatched by other threads are read as 
+ * they are, each snapshot is only approximately consistent.
+ */
+public class Monitor implements HttpServer.Controller {
+    private Loop[] _loops;
+    public Monitor (Loop loop) {
+        _loops = new Loop[]{loop};
+    }
+    public Monitor (Loop[] loops) {
+        _loops = loops;
+    }
+    public Monitor (LoopGroup group) {
+        _loops = new Loop[group.size()];
+        for (int i = 0; i < _loops.length; i++) {
+            _loops[i] = group.loop(i);
+        }
+    }
+    public final boolean handleRequest (HttpServer.Actor http) 
+    throws Throwable {
+        if (!http.method().equals("GET")) {
+            http.error(501); // Not implemented
+            return false;
+        }
+        StringBuilder sb = new StringBuilder();
+        sb.append('[');
+        Instruments instruments;
+        for (int i = 0; i < _loops.length; i++) {
+            if (i > 0) {
+                sb.append(", ");
+            }
+            instruments = _loops[i].instruments();
+            sb.append((instruments == null) ? "null": instruments.json());
+        }
+        sb.append(']');
+        http.set("Cache-control", "no-cache");
+        http.set("Content-Type", "application/json; charset=UTF-8");
+        http.reply(200, sb.toString(), "UTF-8");
+        return false;
+    }
+    public final void handleBody (HttpServer.Actor http) {
+        throw new Error("unexpected call");
+    }
+}
@@ -23,6 +23,8 @@ import org.simple.Objects;
 
 class ContinuationTest {
     
+    static StringBuffer applied = new StringBuffer();
+    
     static class Continued extends Call {
         private String _name;
         public Continued (String name) {
@@ -30,6 +32,7 @@ class ContinuationTest {
         }
         public Object apply (Object value) {
             Static.loop.log(_name + " ( " + value + " )");
+            applied.append(_name).append(' ');
             return value;
         }
     }
@@ -52,6 +55,10 @@ class ContinuationTest {
             test();
             System.err.println("dispatch");
             Static.loop.dispatch();
+            if (!applied.toString().equals("A C B join X Y Z ")) {
+                System.err.println("unexpected order: " + applied);
+                System.exit(1);
+            }
         } catch (Throwable e) {
             Static.loop.log(e);
         }
@@ -0,0 +1,204 @@
+/*  Copyright (C) 2007 Laurent A.V. Szyster
+ *
+ *  This library is free software; you can redistribute it and/or modify
+ *  it under the terms of version 2 of the GNU General Public License as
+ *  published by the Free Software Foundation.
+ *  
+ *   http://www.gnu.org/copyleft/gpl.html
+ *  
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *  
+ *  You should have received a copy of the GNU General Public License
+ *  along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ *  USA
+ *  
+ */
+
+import org.async.core.Static;
+import org.async.core.Server;
+import org.async.core.Pipeline;
+import org.async.chat.ChatDispatcher;
+import org.async.net.NetDispatcher;
+
+import java.io.InputStream;
+import java.io.BufferedInputStream;
+import java.net.Socket;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Push a large buffer followed by many small ones, more than a pipeline 
+ * gathers in one write, and check that a client reading them slowly 
+ * receives all their bytes in order.
+ * 
+ * @p The large buffer is still partly sent when the small ones are staged,
+ * for a <code>ChatDispatcher</code> and for a <code>NetDispatcher</code>,
+ * which frames each small push with two more buffers.
+ * 
+ * @p Usage: <code>java GatherTest</code>, exits with status 1 on failure.
+ */
+public class GatherTest {
+    protected static final int LARGE = 8 << 20;
+    protected static final int SMALL = 200;
+    protected static final byte at (long i) {
+        return (byte) (i * 31 + (i >> 8));
+    }
+    protected static final byte[] large () {
+        byte[] bytes = new byte[LARGE];
+        for (int i = 0; i < LARGE; i++) {
+            bytes[i] = at(i);
+        }
+        return bytes;
+    }
+    /**
+     * Shrink a channel's send buffer, to write the large buffer in many 
+     * parts.
+     */
+    protected static final void small (SelectableChannel channel) 
+    throws Throwable {
+        ((SocketChannel) channel).socket().setSendBufferSize(32768);
+    }
+    protected static final byte[] small (int index) {
+        return ("small " + index + "\n").getBytes();
+    }
+    protected static final class Chat extends ChatDispatcher {
+        public final Object apply (Object input) {
+            return null;
+        }
+        public final void handleConnect () {
+        }
+        public final void handleData (byte[] data) {
+        }
+        public final boolean handleTerminator () throws Throwable {
+            small(_channel);
+            push(large());
+            for (int i = 0; i < SMALL; i++) {
+                push(small(i));
+            }
+            closeWhenDone();
+            return false;
+        }
+        public final void handleClose () {
+        }
+    }
+    protected static final class Net extends NetDispatcher {
+        public final Object apply (Object input) {
+            return null;
+        }
+        public final void handleConnect () {
+        }
+        public final boolean handleLength (int length) {
+            return true;
+        }
+        public final void handleData (byte[] data) {
+        }
+        public final boolean handleTerminator () throws Throwable {
+            small(_channel);
+            push(large());
+            for (int i = 0; i < SMALL; i++) {
+                push(small(i));
+            }
+            closeWhenDone();
+            return false;
+        }
+        public final void handleClose () {
+        }
+    }
+    protected static final class Pushers extends Server {
+        protected boolean _net;
+        public Pushers (boolean net) {
+            _net = net;
+        }
+        public final Pipeline serverAccept () {
+            if (_net) {
+                return new Net();
+            }
+            Chat chat = new Chat();
+            chat.setTerminator("\n".getBytes());
+            return chat;
+        }
+        public final void serverMaintain () {
+            // keep the connection open, active or not
+        }
+        public final int port () {
+            return ((ServerSocketChannel) _channel).socket().getLocalPort();
+        }
+    }
+    protected static final void fail (String message) {
+        System.out.println("FAIL " + message);
+        System.exit(1);
+    }
+    protected static final void expect (InputStream in, byte[] bytes) 
+    throws Throwable {
+        for (int i = 0; i < bytes.length; i++) {
+            if (in.read() != (bytes[i] & 0xff)) {
+                fail("unexpected byte");
+            }
+        }
+    }
+    /**
+     * Read the large buffer and the small ones, framed as netstrings or not.
+     */
+    protected static final void read (int port, boolean net) 
+    throws Throwable {
+        Socket socket = new Socket();
+        socket.setReceiveBufferSize(32768);
+        socket.connect(new InetSocketAddress("127.0.0.1", port));
+        socket.setSoTimeout(10000);
+        socket.getOutputStream().write((net ? "1:x," : "x\n").getBytes());
+        InputStream in = new BufferedInputStream(socket.getInputStream());
+        if (net) {
+            expect(in, (LARGE + ":").getBytes());
+        }
+        for (long i = 0; i < LARGE; i++) {
+            if (in.read() != (at(i) & 0xff)) {
+                fail("at byte " + i + " of the large buffer");
+            }
+            if (i % 32768 == 0) {
+                Thread.sleep(5); // let the server write in many parts
+            }
+        }
+        byte[] data;
+        for (int i = 0; i < SMALL; i++) {
+            data = small(i);
+            if (net) {
+                expect(in, ",".getBytes());
+                expect(in, (data.length + ":").getBytes());
+            }
+            expect(in, data);
+        }
+        if (net) {
+            expect(in, ",".getBytes());
+        }
+        if (in.read() != -1) {
+            fail("unexpected bytes after the small buffers");
+        }
+        socket.close();
+    }
+    public static void main (String[] args) throws Throwable {
+        final Pushers chat = new Pushers(false);
+        chat.listen(new InetSocketAddress("127.0.0.1", 0));
+        final Pushers net = new Pushers(true);
+        net.listen(new InetSocketAddress("127.0.0.1", 0));
+        Thread client = new Thread() {
+            public final void run () {
+                try {
+                    read(chat.port(), false);
+                    read(net.port(), true);
+                } catch (Throwable e) {
+                    e.printStackTrace();
+                    fail(e.getMessage());
+                }
+                System.out.println("OK");
+                System.exit(0);
+            }
+        };
+        client.start();
+        Static.loop.dispatch();
+    }
+}
@@ -0,0 +1,287 @@
+/*  Copyright (C) 2007 Laurent A.V. Szyster
+ *
+ *  This library is free software; you can redistribute it and/or modify
+ *  it under the terms of version 2 of the GNU General Public License as
+ *  published by the Free Software Foundation.
+ *  
+ *   http://www.gnu.org/copyleft/gpl.html
+ *  
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *  
+ *  You should have received a copy of the GNU General Public License
+ *  along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ *  USA
+ *  
+ */
+
+import org.async.core.Static;
+import org.async.chat.SliceProducer;
+import org.async.web.HttpServer;
+import org.protocols.HTTP;
+import org.simple.Bytes;
+import org.simple.Fun;
+import org.simple.Strings;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.Selector;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.io.InputStream;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.Iterator;
+
+/**
+ * Compare the response head serialization with a <code>StringBuilder</code>
+ * and the pre-encoded one of <code>HttpServer</code> for a 200 bytes JSON 
+ * reply, then measure that reply end to end.
+ * 
+ * @p The first measure writes the same status line and headers the way 
+ * <code>HttpServer.Actor</code> did, appending strings and encoding them, 
+ * and the way it does now, copying pre-encoded bytes and writing the 
+ * others in a reused buffer.
+ * 
+ * @p Usage: <code>java HttpHeadBenchmark [connections] [seconds]</code>, 
+ * with 100 connections for 5 seconds by default.
+ */
+public class HttpHeadBenchmark {
+    protected static final byte[] JSON = (
+        "{\"id\": 1234, \"name\": \"asyncorg\", \"tags\": [\"http\", \"nio\", " + 
+        "\"json\"], \"when\": 1234567890123, \"description\": \"a JSON " + 
+        "reply of two hundred bytes, the size of a typical API response\"}"
+        ).getBytes();
+    protected static final String DATE = "Sun, 06 Nov 1994 08:49:37 GMT";
+    protected static final byte[] SERVER_DATE = 
+        ("Server: asyncorg\r\nDate: " + DATE + "\r\n").getBytes();
+    protected static final byte[] CONTENT_LENGTH = 
+        "Content-Length: ".getBytes();
+    protected static final byte[] KEEP_ALIVE = 
+        "Connection: keep-alive\r\n".getBytes();
+    protected static final byte[] COLON = ": ".getBytes();
+    protected static final int ROUNDS = 2000000;
+    protected static final long strings (int rounds) {
+        long bytes = 0;
+        String name;
+        for (int i = 0; i < rounds; i++) {
+            HashMap<String,String> headers = new HashMap<String,String>();
+            headers.put("Content-Type", "application/json");
+            headers.put("Content-Length", Integer.toString(JSON.length));
+            headers.put("Connection", "keep-alive");
+            StringBuilder sb = new StringBuilder();
+            sb.append("HTTP/1.1");
+            sb.append(' ');
+            sb.append("200");
+            sb.append(' ');
+            sb.append(HTTP.RESPONSES.get("200"));
+            sb.append(Strings.CRLF);
+            sb.append("Server: asyncorg\r\nDate: ");
+            sb.append(DATE);
+            sb.append(Strings.CRLF);
+            Iterator names = headers.keySet().iterator();
+            while (names.hasNext()) {
+                name = (String) names.next();
+                sb.append(name);
+                sb.append(": ");
+                sb.append(headers.get(name));
+                sb.append(Strings.CRLF);
+            }
+            sb.append(Strings.CRLF);
+            bytes = bytes + Bytes.encode(sb.toString(), "UTF-8").length;
+            bytes = bytes + JSON.length;
+        }
+        return bytes;
+    }
+    protected static final long preEncoded (int rounds) {
+        long bytes = 0;
+        HttpServer.HeadBuffer head = new HttpServer.HeadBuffer();
+        for (int i = 0; i < rounds; i++) {
+            HashMap<String,String> headers = new HashMap<String,String>();
+            headers.put("Content-Type", "application/json");
+            head.reset();
+            head.write(HttpServer.httpStatus("HTTP/1.1", "200"));
+            head.write(SERVER_DATE);
+            head.write(CONTENT_LENGTH);
+            head.write(JSON.length);
+            head.write(Bytes.CRLF);
+            head.write(KEEP_ALIVE);
+            Iterator names = headers.keySet().iterator();
+            String name;
+            while (names.hasNext()) {
+                name = (String) names.next();
+                head.write(name);
+                head.write(COLON);
+                head.write(headers.get(name));
+                head.write(Bytes.CRLF);
+            }
+            head.write(Bytes.CRLF);
+            bytes = bytes + head.toBytes().length;
+            bytes = bytes + JSON.length;
+        }
+        return bytes;
+    }
+    protected static final void heads () {
+        for (int run = 0; run < 8; run++) { // the last run is measured
+            long t = System.nanoTime();
+            long stringBytes = strings(ROUNDS);
+            long stringNanos = System.nanoTime() - t;
+            t = System.nanoTime();
+            long encodedBytes = preEncoded(ROUNDS);
+            long encodedNanos = System.nanoTime() - t;
+            if (run == 7) {
+                System.out.println(
+                    "StringBuilder: " + (stringNanos / ROUNDS) + " ns per " +
+                    "response, " + (stringBytes * 1000 / stringNanos) + 
+                    " MB/sec"
+                    );
+                System.out.println(
+                    "pre-encoded: " + (encodedNanos / ROUNDS) + " ns per " +
+                    "response, " + (encodedBytes * 1000 / encodedNanos) + 
+                    " MB/sec"
+                    );
+            }
+        }
+    }
+    protected static final class Reply implements HttpServer.Controller {
+        public final boolean handleRequest (HttpServer.Actor http) {
+            http.set("Content-Type", "application/json");
+            http.reply(200, new SliceProducer(ByteBuffer.wrap(JSON)));
+            return false;
+        }
+        public final void handleBody (HttpServer.Actor http) {
+        }
+    }
+    protected static final class Replies extends HttpServer {
+        public Replies () {
+            super(".");
+        }
+        public final void httpLog (HttpServer.Actor http) {
+            // do not log each reply
+        }
+        public final void serverMaintain () {
+            _calendar.add(Calendar.MILLISECOND, precision);
+            _httpDate(); // keep the connections open, active or not
+        }
+        public final int port () {
+            return ((ServerSocketChannel) _channel).socket().getLocalPort();
+        }
+    }
+    protected static final class Clients extends Thread {
+        int _port;
+        int _connections;
+        int _seconds;
+        long _responses = 0;
+        long _bytes = 0;
+        long _elapsed = 0;
+        Clients (int port, int connections, int seconds) {
+            _port = port;
+            _connections = connections;
+            _seconds = seconds;
+        }
+        /**
+         * Get one response to learn the length of all responses.
+         */
+        protected final int length (byte[] request) throws Throwable {
+            Socket socket = new Socket("127.0.0.1", _port);
+            socket.getOutputStream().write(request);
+            InputStream in = socket.getInputStream();
+            StringBuilder head = new StringBuilder();
+            while (!head.toString().endsWith("\r\n\r\n")) {
+                head.append((char) in.read());
+            }
+            socket.close();
+            return head.length() + JSON.length;
+        }
+        public final void run () {
+            byte[] request = (
+                "GET /json HTTP/1.1\r\nHost: 127.0.0.1\r\n\r\n"
+                ).getBytes();
+            try {
+                int length = length(request);
+                Selector selector = Selector.open();
+                InetSocketAddress address = new InetSocketAddress(
+                    "127.0.0.1", _port
+                    );
+                ByteBuffer[] buffers = new ByteBuffer[_connections];
+                for (int i = 0; i < _connections; i++) {
+                    SocketChannel channel = SocketChannel.open(address);
+                    channel.configureBlocking(false);
+                    channel.write(ByteBuffer.wrap(request));
+                    buffers[i] = ByteBuffer.allocate(length);
+                    channel.register(
+                        selector, SelectionKey.OP_READ, new Integer(i)
+                        );
+                }
+                long started = System.currentTimeMillis();
+                long stop = started + _seconds * 1000;
+                while (System.currentTimeMillis() < stop) {
+                    selector.select(100);
+                    Iterator keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = (SelectionKey) keys.next();
+                        keys.remove();
+                        SocketChannel channel = (SocketChannel) key.channel();
+                        ByteBuffer buffer = buffers[
+                            ((Integer) key.attachment()).intValue()
+                            ];
+                        if (channel.read(buffer) < 0) {
+                            throw new Error("connection closed");
+                        }
+                        if (!buffer.hasRemaining()) {
+                            _responses++;
+                            _bytes = _bytes + length;
+                            buffer.clear();
+                            channel.write(ByteBuffer.wrap(request));
+                        }
+                    }
+                }
+                _elapsed = System.currentTimeMillis() - started;
+                Iterator keys = selector.keys().iterator();
+                while (keys.hasNext()) {
+                    ((SelectionKey) keys.next()).channel().close();
+                }
+                selector.close();
+            } catch (Throwable e) {
+                e.printStackTrace();
+            }
+        }
+    }
+    public static void main (String[] args) throws Throwable {
+        heads();
+        int connections = (args.length > 0) ? Integer.parseInt(args[0]): 100;
+        int seconds = (args.length > 1) ? Integer.parseInt(args[1]): 5;
+        final Replies server = new Replies();
+        server.httpListen("127.0.0.1:0");
+        server.httpRoute("127.0.0.1/json", new Reply());
+        final Clients clients = new Clients(
+            server.port(), connections, seconds
+            );
+        clients.start();
+        Static.loop.timeout(100, new Fun () {
+            public final Object apply (Object when) throws Throwable {
+                if (clients.isAlive()) {
+                    return new Long(Static.loop.now() + 100);
+                }
+                server.close();
+                System.out.println(
+                    clients._connections + " keep-alive connections, " + 
+                    clients._responses + " JSON replies in " + 
+                    clients._elapsed + " ms, " + (
+                        clients._responses * 1000 / 
+                        Math.max(clients._elapsed, 1)
+                        ) + " replies/sec, " + (
+                        clients._bytes / 1000 / Math.max(clients._elapsed, 1)
+                        ) + " MB/sec"
+                    );
+                System.exit(0);
+                return new Long(-1);
+            }
+        });
+        Static.loop.dispatch();
+    }
+}
@@ -0,0 +1,233 @@
+/*  Copyright (C) 2007 Laurent A.V. Szyster
+ *
+ *  This library is free software; you can redistribute it and/or modify
+ *  it under the terms of version 2 of the GNU General Public License as
+ *  published by the Free Software Foundation.
+ *  
+ *   http://www.gnu.org/copyleft/gpl.html
+ *  
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *  
+ *  You should have received a copy of the GNU General Public License
+ *  along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ *  USA
+ *  
+ */
+
+import org.async.core.Static;
+import org.async.web.HttpServer;
+import org.simple.Fun;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.Selector;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.io.InputStream;
+import java.util.Calendar;
+import java.util.Iterator;
+
+/**
+ * Load an <code>HttpServer</code> with pipelined requests and check that
+ * their responses come back in order.
+ * 
+ * @p Each connection sends a batch of requests at once, numbered in their 
+ * paths, and waits for all responses before the next batch. Each response 
+ * echoes its request's number, which is checked. The same load is applied 
+ * without pipelining, then with batches of the given depth and finally 
+ * with batches twice as deep as the server's window, to exercise its read
+ * suspension.
+ * 
+ * @p Usage: <code>java HttpPipeliningTest [connections] [seconds] 
+ * [depth]</code>, with 50 connections for 5 seconds and a depth of 16 by 
+ * default. It exits with status 1 if a response is out of order or a 
+ * client fails.
+ */
+public class HttpPipeliningTest {
+    protected static final class Echo implements HttpServer.Controller {
+        public final boolean handleRequest (HttpServer.Actor http) {
+            http.set("Content-Type", "text/plain");
+            http.reply(200, http.path().substring(6).getBytes());
+            return false;
+        }
+        public final void handleBody (HttpServer.Actor http) {
+        }
+    }
+    protected static final class Echoes extends HttpServer {
+        public Echoes () {
+            super(".");
+        }
+        public final void httpLog (HttpServer.Actor http) {
+            // do not log each response
+        }
+        public final void serverMaintain () {
+            _calendar.add(Calendar.MILLISECOND, precision);
+            _httpDate(); // keep the connections open, active or not
+        }
+        public final int port () {
+            return ((ServerSocketChannel) _channel).socket().getLocalPort();
+        }
+    }
+    protected static final class Clients extends Thread {
+        int _port;
+        int _connections;
+        int _seconds;
+        int _depth;
+        long _responses = 0;
+        long _elapsed = 0;
+        Throwable _failed = null;
+        Clients (int port, int connections, int seconds, int depth) {
+            _port = port;
+            _connections = connections;
+            _seconds = seconds;
+            _depth = depth;
+        }
+        protected static final byte[] request (int index) {
+            return (
+                "GET /echo/" + (1000 + index) + 
+                " HTTP/1.1\r\nHost: 127.0.0.1\r\n\r\n"
+                ).getBytes();
+        }
+        /**
+         * Get one response to learn the length of all responses.
+         */
+        protected final int length () throws Throwable {
+            Socket socket = new Socket("127.0.0.1", _port);
+            socket.getOutputStream().write(request(0));
+            InputStream in = socket.getInputStream();
+            StringBuilder head = new StringBuilder();
+            while (!head.toString().endsWith("\r\n\r\n")) {
+                head.append((char) in.read());
+            }
+            socket.close();
+            return head.length() + 4;
+        }
+        /**
+         * Check that a batch of responses came back in order.
+         */
+        protected final void check (ByteBuffer buffer, int length) {
+            byte[] bytes = buffer.array();
+            for (int i = 0; i < _depth; i++) {
+                String echoed = new String(bytes, (i + 1) * length - 4, 4);
+                if (!echoed.equals(Integer.toString(1000 + i))) {
+                    throw new Error(
+                        "response " + i + " out of order: " + echoed
+                        );
+                }
+            }
+        }
+        public final void run () {
+            try {
+                ByteBuffer batch = ByteBuffer.allocate(
+                    request(0).length * _depth
+                    );
+                for (int i = 0; i < _depth; i++) {
+                    batch.put(request(i));
+                }
+                byte[] requests = batch.array();
+                int length = length();
+                Selector selector = Selector.open();
+                InetSocketAddress address = new InetSocketAddress(
+                    "127.0.0.1", _port
+                    );
+                ByteBuffer[] buffers = new ByteBuffer[_connections];
+                for (int i = 0; i < _connections; i++) {
+                    SocketChannel channel = SocketChannel.open(address);
+                    channel.write(ByteBuffer.wrap(requests));
+                    channel.configureBlocking(false);
+                    buffers[i] = ByteBuffer.allocate(length * _depth);
+                    channel.register(
+                        selector, SelectionKey.OP_READ, new Integer(i)
+                        );
+                }
+                long started = System.currentTimeMillis();
+                long stop = started + _seconds * 1000;
+                while (System.currentTimeMillis() < stop) {
+                    selector.select(100);
+                    Iterator keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = (SelectionKey) keys.next();
+                        keys.remove();
+                        SocketChannel channel = (SocketChannel) key.channel();
+                        ByteBuffer buffer = buffers[
+                            ((Integer) key.attachment()).intValue()
+                            ];
+                        if (channel.read(buffer) < 0) {
+                            throw new Error("connection closed");
+                        }
+                        if (!buffer.hasRemaining()) {
+                            check(buffer, length);
+                            _responses = _responses + _depth;
+                            buffer.clear();
+                            ByteBuffer out = ByteBuffer.wrap(requests);
+                            while (out.hasRemaining()) {
+                                channel.write(out);
+                            }
+                        }
+                    }
+                }
+                _elapsed = System.currentTimeMillis() - started;
+                Iterator keys = selector.keys().iterator();
+                while (keys.hasNext()) {
+                    ((SelectionKey) keys.next()).channel().close();
+                }
+                selector.close();
+            } catch (Throwable e) {
+                _failed = e;
+            }
+        }
+    }
+    protected static Clients _clients;
+    protected static final void load (
+        final Echoes server, final int connections, final int seconds, 
+        final int[] depths, final int run
+        ) {
+        _clients = new Clients(server.port(), connections, seconds, depths[run]);
+        _clients.start();
+        Static.loop.timeout(100, new Fun () {
+            public final Object apply (Object when) throws Throwable {
+                if (_clients.isAlive()) {
+                    return new Long(Static.loop.now() + 100);
+                }
+                if (_clients._failed != null) {
+                    _clients._failed.printStackTrace();
+                    System.out.println(
+                        "FAIL at depth " + _clients._depth + ": " + 
+                        _clients._failed.getMessage()
+                        );
+                    System.exit(1);
+                }
+                System.out.println(
+                    connections + " connections, depth " + _clients._depth + 
+                    ": " + _clients._responses + " responses in " + 
+                    _clients._elapsed + " ms, " + (
+                        _clients._responses * 1000 / 
+                        Math.max(_clients._elapsed, 1)
+                        ) + " responses/sec"
+                    );
+                if (run + 1 < depths.length) {
+                    load(server, connections, seconds, depths, run + 1);
+                } else {
+                    server.close();
+                    System.exit(0);
+                }
+                return new Long(-1);
+            }
+        });
+    }
+    public static void main (String[] args) throws Throwable {
+        int connections = (args.length > 0) ? Integer.parseInt(args[0]): 50;
+        int seconds = (args.length > 1) ? Integer.parseInt(args[1]): 5;
+        int depth = (args.length > 2) ? Integer.parseInt(args[2]): 16;
+        Echoes server = new Echoes();
+        server.httpListen("127.0.0.1:0");
+        server.httpRoute("127.0.0.1/echo", new Echo());
+        load(server, connections, seconds, new int[]{1, depth, depth * 2}, 0);
+        Static.loop.dispatch();
+    }
+}
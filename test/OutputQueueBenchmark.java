@@ -0,0 +1,260 @@
+/*  Copyright (C) 2007 Laurent A.V. Szyster
+ *
+ *  This library is free software; you can redistribute it and/or modify
+ *  it under the terms of version 2 of the GNU General Public License as
+ *  published by the Free Software Foundation.
+ *  
+ *   http://www.gnu.org/copyleft/gpl.html
+ *  
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *  
+ *  You should have received a copy of the GNU General Public License
+ *  along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ *  USA
+ *  
+ */
+
+import org.async.core.Static;
+import org.async.core.Server;
+import org.async.core.Pipeline;
+import org.async.core.OutputQueue;
+import org.async.chat.ChatDispatcher;
+import org.simple.Fun;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.Selector;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.net.InetSocketAddress;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Method;
+import java.util.Iterator;
+import java.util.LinkedList;
+
+/**
+ * Compare the pipeline's output queue with the <code>LinkedList</code> it
+ * replaced on a keep-alive workload of 1KB responses, then measure that
+ * workload end to end.
+ * 
+ * @p Each response is queued as a head and a body buffer, the way an 
+ * HTTP channel does, and dequeued the way a pipeline produces its output: 
+ * testing the class of each item in a linked list or switching on the 
+ * kind of each segment in the ring. Allocations are reported when the JVM 
+ * can count them per thread.
+ * 
+ * @p Usage: <code>java OutputQueueBenchmark [connections] [seconds]</code>, 
+ * with 100 connections for 5 seconds by default.
+ */
+public class OutputQueueBenchmark {
+    protected static final byte[] HEAD = (
+        "HTTP/1.1 200 Ok\r\nContent-Type: text/plain\r\n" + 
+        "Content-Length: 1024\r\n\r\n"
+        ).getBytes();
+    protected static final byte[] BODY = new byte[1024];
+    protected static final int ROUNDS = 5000000;
+    protected static Method _allocated = null;
+    protected static final long allocated () {
+        if (_allocated == null) {
+            return 0;
+        }
+        try {
+            return ((Long) _allocated.invoke(
+                ManagementFactory.getThreadMXBean(), 
+                new Object[]{new Long(Thread.currentThread().getId())}
+                )).longValue();
+        } catch (Exception e) {
+            return 0;
+        }
+    }
+    protected static final long linkedList (int rounds) {
+        LinkedList fifo = new LinkedList();
+        long bytes = 0;
+        Object first;
+        for (int i = 0; i < rounds; i++) {
+            fifo.add(ByteBuffer.wrap(HEAD));
+            fifo.add(ByteBuffer.wrap(BODY));
+            while (!fifo.isEmpty()) {
+                first = fifo.getFirst();
+                if (first == null) {
+                    break;
+                } else if (first instanceof ByteBuffer) {
+                    fifo.removeFirst();
+                    bytes = bytes + ((ByteBuffer) first).remaining();
+                }
+            }
+        }
+        return bytes;
+    }
+    protected static final long outputQueue (int rounds) {
+        OutputQueue fifo = new OutputQueue();
+        long bytes = 0;
+        for (int i = 0; i < rounds; i++) {
+            fifo.addBuffer(ByteBuffer.wrap(HEAD));
+            fifo.addBuffer(ByteBuffer.wrap(BODY));
+            while (!fifo.isEmpty()) {
+                if (fifo.kind() == OutputQueue.BUFFER) {
+                    bytes = bytes + (
+                        (ByteBuffer) fifo.removeFirst()
+                        ).remaining();
+                } else {
+                    break;
+                }
+            }
+        }
+        return bytes;
+    }
+    protected static final void queues () {
+        try {
+            _allocated = Class.forName(
+                "com.sun.management.ThreadMXBean"
+                ).getMethod("getThreadAllocatedBytes", new Class[]{long.class});
+        } catch (Exception e) {
+            _allocated = null;
+        }
+        for (int run = 0; run < 8; run++) { // the last run is measured
+            long a = allocated();
+            long t = System.nanoTime();
+            linkedList(ROUNDS);
+            long listNanos = System.nanoTime() - t;
+            long listBytes = allocated() - a;
+            a = allocated();
+            t = System.nanoTime();
+            outputQueue(ROUNDS);
+            long queueNanos = System.nanoTime() - t;
+            long queueBytes = allocated() - a;
+            if (run == 7) {
+                System.out.println(
+                    "LinkedList: " + (listNanos / ROUNDS) + " ns and " + 
+                    (listBytes / ROUNDS) + " bytes allocated per response"
+                    );
+                System.out.println(
+                    "OutputQueue: " + (queueNanos / ROUNDS) + " ns and " + 
+                    (queueBytes / ROUNDS) + " bytes allocated per response"
+                    );
+            }
+        }
+    }
+    protected static final class Responder extends ChatDispatcher {
+        public final Object apply (Object input) {
+            return null;
+        }
+        public final void handleConnect () {
+        }
+        public final void handleData (byte[] data) {
+        }
+        public final boolean handleTerminator () {
+            push(HEAD);
+            push(BODY);
+            return false;
+        }
+        public final void handleClose () {
+        }
+    }
+    protected static final class Responders extends Server {
+        public final Pipeline serverAccept () {
+            Responder responder = new Responder();
+            responder.setTerminator("\n".getBytes());
+            return responder;
+        }
+        public final void serverMaintain () {
+            // keep the connections open, active or not
+        }
+        public final int port () {
+            return ((ServerSocketChannel) _channel).socket().getLocalPort();
+        }
+    }
+    protected static final class Clients extends Thread {
+        int _port;
+        int _connections;
+        int _seconds;
+        long _responses = 0;
+        long _elapsed = 0;
+        Clients (int port, int connections, int seconds) {
+            _port = port;
+            _connections = connections;
+            _seconds = seconds;
+        }
+        public final void run () {
+            byte[] request = "GET\n".getBytes();
+            int length = HEAD.length + BODY.length;
+            try {
+                Selector selector = Selector.open();
+                InetSocketAddress address = new InetSocketAddress(
+                    "127.0.0.1", _port
+                    );
+                ByteBuffer[] buffers = new ByteBuffer[_connections];
+                for (int i = 0; i < _connections; i++) {
+                    SocketChannel channel = SocketChannel.open(address);
+                    channel.configureBlocking(false);
+                    channel.write(ByteBuffer.wrap(request));
+                    buffers[i] = ByteBuffer.allocate(length);
+                    channel.register(
+                        selector, SelectionKey.OP_READ, new Integer(i)
+                        );
+                }
+                long started = System.currentTimeMillis();
+                long stop = started + _seconds * 1000;
+                while (System.currentTimeMillis() < stop) {
+                    selector.select(100);
+                    Iterator keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = (SelectionKey) keys.next();
+                        keys.remove();
+                        SocketChannel channel = (SocketChannel) key.channel();
+                        ByteBuffer buffer = buffers[
+                            ((Integer) key.attachment()).intValue()
+                            ];
+                        if (channel.read(buffer) < 0) {
+                            throw new Error("connection closed");
+                        }
+                        if (!buffer.hasRemaining()) {
+                            _responses++;
+                            buffer.clear();
+                            channel.write(ByteBuffer.wrap(request));
+                        }
+                    }
+                }
+                _elapsed = System.currentTimeMillis() - started;
+                Iterator keys = selector.keys().iterator();
+                while (keys.hasNext()) {
+                    ((SelectionKey) keys.next()).channel().close();
+                }
+                selector.close();
+            } catch (Throwable e) {
+                e.printStackTrace();
+            }
+        }
+    }
+    public static void main (String[] args) throws Throwable {
+        queues();
+        int connections = (args.length > 0) ? Integer.parseInt(args[0]): 100;
+        int seconds = (args.length > 1) ? Integer.parseInt(args[1]): 5;
+        final Responders server = new Responders();
+        server.listen(new InetSocketAddress("127.0.0.1", 0), 1024);
+        final Clients clients = new Clients(server.port(), connections, seconds);
+        clients.start();
+        Static.loop.timeout(100, new Fun () {
+            public final Object apply (Object when) throws Throwable {
+                if (clients.isAlive()) {
+                    return new Long(Static.loop.now() + 100);
+                }
+                server.close();
+                System.out.println(
+                    clients._connections + " keep-alive connections, " + 
+                    clients._responses + " responses of 1KB in " + 
+                    clients._elapsed + " ms, " + (
+                        clients._responses * 1000 / 
+                        Math.max(clients._elapsed, 1)
+                        ) + " responses/sec"
+                    );
+                System.exit(0);
+                return new Long(-1);
+            }
+        });
+        Static.loop.dispatch();
+    }
+}
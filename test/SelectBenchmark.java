@@ -0,0 +1,205 @@
+/*  Copyright (C) 2007 Laurent A.V. Szyster
+ *
+ *  This library is free software; you can redistribute it and/or modify
+ *  it under the terms of version 2 of the GNU General Public License as
+ *  published by the Free Software Foundation.
+ *  
+ *   http://www.gnu.org/copyleft/gpl.html
+ *  
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *  
+ *  You should have received a copy of the GNU General Public License
+ *  along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ *  USA
+ *  
+ */
+
+import org.async.core.Static;
+import org.async.core.Loop;
+import org.async.core.Server;
+import org.async.core.Pipeline;
+import org.async.chat.ChatDispatcher;
+import org.simple.Fun;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.Selector;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.net.InetSocketAddress;
+import java.util.Iterator;
+import java.io.InputStream;
+import java.io.IOException;
+
+/**
+ * Echo lines between a loop and many concurrent connections, each one 
+ * sending its next line when the previous one is echoed, and print the 
+ * round trips per second dispatched.
+ * 
+ * @p Usage: <code>java SelectBenchmark [connections] [seconds]</code>, 
+ * with 10000 connections for 10 seconds by default. The clients run in a 
+ * child process, so that each side has its own open files limit.
+ */
+public class SelectBenchmark {
+    protected static final class Echo extends ChatDispatcher {
+        public final Object apply (Object input) {
+            return null;
+        }
+        public final void handleConnect () {
+            setTerminator("\n".getBytes());
+        }
+        public final void handleData (byte[] data) {
+            push(data);
+        }
+        public final boolean handleTerminator () {
+            push("\n".getBytes());
+            return false;
+        }
+        public final void handleClose () {
+        }
+    }
+    protected static final class EchoServer extends Server {
+        public final Pipeline serverAccept () {
+            return new Echo();
+        }
+        public final void serverMaintain () {
+            // keep the connections open, active or not
+        }
+        public final int port () {
+            return ((ServerSocketChannel) _channel).socket().getLocalPort();
+        }
+    }
+    protected static final class Clients extends Thread {
+        int _port;
+        int _connections;
+        int _seconds;
+        long _trips = 0;
+        long _elapsed = 0;
+        int _starved = 0;
+        Clients (int port, int connections, int seconds) {
+            _port = port;
+            _connections = connections;
+            _seconds = seconds;
+        }
+        public final void run () {
+            byte[] line = "ping\n".getBytes();
+            try {
+                Selector selector = Selector.open();
+                InetSocketAddress address = new InetSocketAddress(
+                    "127.0.0.1", _port
+                    );
+                ByteBuffer[] buffers = new ByteBuffer[_connections];
+                long[] trips = new long[_connections];
+                for (int i = 0; i < _connections; i++) {
+                    SocketChannel channel = SocketChannel.open(address);
+                    channel.configureBlocking(false);
+                    channel.write(ByteBuffer.wrap(line));
+                    buffers[i] = ByteBuffer.allocate(line.length);
+                    channel.register(
+                        selector, SelectionKey.OP_READ, new Integer(i)
+                        );
+                }
+                long started = System.currentTimeMillis();
+                long stop = started + _seconds * 1000;
+                while (System.currentTimeMillis() < stop) {
+                    selector.select(100);
+                    Iterator keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = (SelectionKey) keys.next();
+                        keys.remove();
+                        SocketChannel channel = (SocketChannel) key.channel();
+                        int i = ((Integer) key.attachment()).intValue();
+                        ByteBuffer buffer = buffers[i];
+                        if (channel.read(buffer) < 0) {
+                            throw new Error("connection closed");
+                        }
+                        if (!buffer.hasRemaining()) {
+                            _trips++;
+                            trips[i]++;
+                            buffer.clear();
+                            channel.write(ByteBuffer.wrap(line));
+                        }
+                    }
+                }
+                _elapsed = System.currentTimeMillis() - started;
+                for (int i = 0; i < _connections; i++) {
+                    if (trips[i] == 0) {
+                        _starved++;
+                    }
+                }
+                Iterator keys = selector.keys().iterator();
+                while (keys.hasNext()) {
+                    ((SelectionKey) keys.next()).channel().close();
+                }
+                selector.close();
+            } catch (Throwable e) {
+                e.printStackTrace();
+            }
+        }
+    }
+    public static void main (String[] args) throws Throwable {
+        if (args.length > 0 && args[0].equals("-clients")) {
+            Clients clients = new Clients(
+                Integer.parseInt(args[1]), 
+                Integer.parseInt(args[2]), 
+                Integer.parseInt(args[3])
+                );
+            clients.run();
+            System.out.println(
+                clients._connections + " connections, " + 
+                clients._trips + " round trips in " + 
+                clients._elapsed + " ms, " + 
+                (clients._trips * 1000 / Math.max(clients._elapsed, 1)) + 
+                " ops/sec, " + clients._starved + " starved"
+                );
+            return;
+        }
+        String connections = (args.length > 0) ? args[0]: "10000";
+        String seconds = (args.length > 1) ? args[1]: "10";
+        EchoServer server = new EchoServer();
+        server.listen(new InetSocketAddress("127.0.0.1", 0), 1024);
+        // the clients run in their own process, with their own files limit
+        final Process clients = new ProcessBuilder(new String[]{
+            System.getProperty("java.home") + "/bin/java", 
+            "-cp", System.getProperty("java.class.path"), 
+            "SelectBenchmark", "-clients", 
+            Integer.toString(server.port()), connections, seconds
+            }).redirectErrorStream(true).start();
+        final Thread output = new Thread() {
+            public final void run () {
+                try {
+                    byte[] buffer = new byte[4096];
+                    InputStream in = clients.getInputStream();
+                    for (int n = in.read(buffer); n > -1; n = in.read(buffer)) {
+                        System.out.write(buffer, 0, n);
+                    }
+                    System.out.flush();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        };
+        output.start();
+        final EchoServer stopped = server;
+        Static.loop.timeout(100, new Fun () {
+            public final Object apply (Object when) throws Throwable {
+                if (output.isAlive()) {
+                    return new Long(Static.loop.now() + 100);
+                }
+                stopped.close();
+                Loop loop = Static.loop;
+                System.out.println(
+                    loop.admissions() + " admissions waited " + 
+                    (loop.admissionWait() / Math.max(loop.admissions(), 1)) + 
+                    " ms in average, " + loop.admissionWaitMax() + " ms max"
+                    );
+                System.exit(clients.waitFor());
+                return new Long(-1);
+            }
+        });
+        Static.loop.dispatch();
+    }
+}
@@ -0,0 +1,87 @@
+/*  Copyright (C) 2007 Laurent A.V. Szyster
+ *
+ *  This library is free software; you can redistribute it and/or modify
+ *  it under the terms of version 2 of the GNU General Public License as
+ *  published by the Free Software Foundation.
+ *  
+ *   http://www.gnu.org/copyleft/gpl.html
+ *  
+ *  This library is distributed in the hope that it will be useful, but
+ *  WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ *  
+ *  You should have received a copy of the GNU General Public License
+ *  along with this library; if not, write to the Free Software
+ *  Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307
+ *  USA
+ *  
+ */
+
+
+import org.async.core.Loop;
+import org.async.core.Static;
+import org.async.core.Server;
+import org.async.core.Pipeline;
+import org.simple.Fun;
+
+import java.net.InetSocketAddress;
+
+/**
+ * Schedule a short timeout after the loop's wheel was left empty for more 
+ * than one turn, and check that it is not applied late.
+ * 
+ * @p A listening server keeps the loop dispatching without any event in 
+ * time. After more than five seconds another thread defers the scheduling 
+ * of a 3 milliseconds timeout, which must be applied well within the loop's
+ * precision.
+ * 
+ * @p Usage: <code>java TimeoutTest</code>, exits with status 1 on failure.
+ */
+public class TimeoutTest {
+    protected static final int IDLE = 5500;
+    protected static final int TIMEOUT = 3;
+    protected static final int LATE = 50;
+    static class Idle extends Server {
+        public Pipeline serverAccept () {
+            return null;
+        }
+    }
+    static class Scheduling implements Fun {
+        long _scheduled;
+        public Object apply (Object input) {
+            _scheduled = System.currentTimeMillis();
+            Static.loop.timeout(TIMEOUT, new Fun () {
+                public Object apply (Object input) {
+                    long elapsed = System.currentTimeMillis() - _scheduled;
+                    System.out.println(
+                        "applied after " + elapsed + " ms"
+                        );
+                    if (elapsed > TIMEOUT + LATE) {
+                        System.out.println("FAIL");
+                        System.exit(1);
+                    }
+                    System.out.println("OK");
+                    System.exit(0);
+                    return Long.valueOf(-1);
+                }
+            });
+            return null;
+        }
+    }
+    public static void main (String[] args) throws Throwable {
+        Idle server = new Idle();
+        server.listen(new InetSocketAddress("127.0.0.1", 0));
+        final Loop loop = Static.loop;
+        new Thread () {
+            public void run () {
+                try {
+                    Thread.sleep(IDLE);
+                } catch (InterruptedException e) {
+                    ;
+                }
+                loop.defer(new Scheduling());
+            }
+        }.start();
+        loop.dispatch();
+    }
+}